@@ -89,7 +89,8 @@ public class ArgCstPvdr extends CompletionProvider<CompletionParameters>
                     runSafeRemainingContributors(result, parameters, otherSrc -> {});
                 }
                 SearchCtx search = new SearchCtx(caretLeaf.getProject())
-                    .setDepth(AssocKeyPvdr.getMaxDepth(parameters.isAutoPopup(), caretLeaf.getProject()));
+                    .setDepth(AssocKeyPvdr.getMaxDepth(parameters.isAutoPopup(), caretLeaf.getProject()))
+                    .setTimeout(AssocKeyPvdr.getTimeout(parameters.isAutoPopup(), caretLeaf.getProject()));
                 FuncCtx funcCtx = new FuncCtx(search);
                 IExprCtx exprCtx = new ExprCtx(funcCtx, caretLeaf, 0);
 
@@ -71,6 +71,9 @@ public class ArrCtorIncompleteAssocKeyPvdr extends CompletionProvider<Completion
 				SearchCtx search = new SearchCtx(lit.getProject())
 					.setDepth(AssocKeyPvdr.getMaxDepth(
 						parameters.isAutoPopup(), lit.getProject()
+					))
+					.setTimeout(AssocKeyPvdr.getTimeout(
+						parameters.isAutoPopup(), lit.getProject()
 					));
 				FuncCtx funcCtx = new FuncCtx(search);
 				IExprCtx exprCtx = new ExprCtx(funcCtx, lit, 0);
@@ -52,7 +52,8 @@ public class ArrFuncRefNamePvdr extends CompletionProvider<CompletionParameters>
     public static It<T2<Method, Boolean>> resolve(StringLiteralExpression literal, boolean isAutoPopup)
     {
         SearchCtx search = new SearchCtx(literal.getProject())
-            .setDepth(AssocKeyPvdr.getMaxDepth(isAutoPopup, literal.getProject()));
+            .setDepth(AssocKeyPvdr.getMaxDepth(isAutoPopup, literal.getProject()))
+            .setTimeout(AssocKeyPvdr.getTimeout(isAutoPopup, literal.getProject()));
         FuncCtx funcCtx = new FuncCtx(search);
         return opt(literal.getParent())
             .map(arrVal -> arrVal.getParent())
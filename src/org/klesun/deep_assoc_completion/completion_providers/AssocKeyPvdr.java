@@ -2,6 +2,7 @@ package org.klesun.deep_assoc_completion.completion_providers;
 
 import com.intellij.codeInsight.completion.*;
 import com.intellij.codeInsight.lookup.*;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
@@ -67,6 +68,23 @@ public class AssocKeyPvdr extends CompletionProvider<CompletionParameters>
         return getMaxDepth(parameters.isAutoPopup(), parameters.getEditor().getProject());
     }
 
+    /** @return seconds after which search stops and returns whatever was resolved so far */
+    public static double getTimeout(boolean isAutoPopup, @Nullable Project project)
+    {
+        if (project != null) {
+            DeepSettings settings = DeepSettings.inst(project);
+            int budgetMs = isAutoPopup ? settings.implicitTimeBudget : settings.explicitTimeBudget;
+            return budgetMs / 1000.0;
+        } else {
+            return isAutoPopup ? 2.0 : 15.0;
+        }
+    }
+
+    public static double getTimeout(CompletionParameters parameters)
+    {
+        return getTimeout(parameters.isAutoPopup(), parameters.getEditor().getProject());
+    }
+
     private static String prepareTailText(int keyLength, String briefVal, Opt<String> commentOpt) {
         int maxValLen = commentOpt.has() ? COMMENTED_MAX_LEN : BRIEF_VALUE_MAX_LEN;
 
@@ -253,6 +271,7 @@ public class AssocKeyPvdr extends CompletionProvider<CompletionParameters>
         Set<String> suggested = new LinkedHashSet<>();
         Mutable<Boolean> isFirst = new Mutable<>(true);
         Mutable<Boolean> hadComments = new Mutable<>(false);
+        CaretValue caretValue = new CaretValue(exprCtx.expr);
 
         arrMt.types.fap(t -> t.keys).fch((keyEntry, i) -> {
             keyEntry.keyType.getTypes().itr().fch((kt,j) -> {
@@ -269,6 +288,7 @@ public class AssocKeyPvdr extends CompletionProvider<CompletionParameters>
                 if (commentOpt.has()) {
                     hadComments.set(true);
                 }
+                Opt<String> tailCommentOpt = commentOpt;
                 L<DeepType> valtarr = keyEntry.getGrantedValues();
                 String briefTypeRaw = valtarr.size() < 1
                     ? Mt.getKeyBriefTypeSt(keyEntry.getBriefTypes())
@@ -302,7 +322,11 @@ public class AssocKeyPvdr extends CompletionProvider<CompletionParameters>
                     LookupElement prio = PrioritizedLookupElement
                         .withPriority(lookup, priority);
 
-                    result.addElement(prio);
+                    if (valtarr.size() > 0 || metCommentOpt.has()) {
+                        result.addElement(prio);
+                    } else {
+                        result.addElement(new ResolvingLookup(prio, caretValue, kt.stringValue, tailCommentOpt));
+                    }
                     suggested.add(lookupKey.lookup.getLookupString());
                 }
             });
@@ -329,13 +353,17 @@ public class AssocKeyPvdr extends CompletionProvider<CompletionParameters>
         Mutable<Long> firstTime = new Mutable<>(-1L);
 
         int depth = getMaxDepth(parameters);
-        SearchCtx search = new SearchCtx(parameters).setDepth(depth);
+        SearchCtx search = new SearchCtx(parameters).setDepth(depth)
+            .setTimeout(getTimeout(parameters));
         FuncCtx funcCtx = new FuncCtx(search);
         search.isMain = true;
         ExprCtx exprCtx = new ExprCtx(funcCtx, caretPsi, 0);
         IIt<DeepType> arrTit;
         try {
             arrTit = resolveAtPsi(caretPsi, exprCtx);
+        } catch (ProcessCanceledException exc) {
+            // user typed on, the result is not needed anymore
+            throw exc;
         } catch (Throwable exc) {
             printExprTree(exprCtx, search, 0);
             throw exc;
@@ -391,6 +419,92 @@ public class AssocKeyPvdr extends CompletionProvider<CompletionParameters>
         }
     }
 
+    /**
+     * array at caret resolved once for all options of the popup, in a new search with a
+     * small limit rather than through the completion search, since renderer runs in parallel
+     * with completion thread and completion search is most likely spent by then. Most of
+     * the types are taken from project cache anyway, so it does not resolve everything again
+     *
+     * renderers of options may run in parallel, so they take key values one at a time
+     */
+    private static class CaretValue
+    {
+        final private static int MAX_EXPRESSIONS = 2000;
+        final private static double TIMEOUT = 2.0;
+
+        final private PsiElement caretPsi;
+        private Mt arrMt = null;
+
+        CaretValue(PsiElement caretPsi) {
+            this.caretPsi = caretPsi;
+        }
+
+        private Mt resolveArr() {
+            Project project = caretPsi.getProject();
+            SearchCtx search = new SearchCtx(project)
+                .setDepth(getMaxDepth(true, project))
+                .setTimeout(TIMEOUT);
+            search.overrideMaxExpr = som(MAX_EXPRESSIONS);
+            ExprCtx exprCtx = new ExprCtx(new FuncCtx(search), caretPsi, 0);
+            return Mt.reuse(resolveAtPsi(caretPsi, exprCtx));
+        }
+
+        /** @return brief value text and brief type of the key */
+        synchronized T2<String, String> getKeyBriefs(@Nullable String keyName) {
+            if (arrMt == null) {
+                arrMt = resolveArr();
+            }
+            Mt valMt = arrMt.getKey(keyName);
+            String briefVal = valMt.getBriefValueText(BRIEF_VALUE_MAX_LEN);
+            String ideaType = Mt.joinIdeaTypes(valMt.types.map(t -> t.briefType))
+                .filterUnknown().filterMixed().toStringResolved();
+            return T2(briefVal, ideaType);
+        }
+    }
+
+    /**
+     * resolves value of the key when option is shown in the popup, in a background
+     * thread, so that popup did not have to wait for values of all keys to appear
+     *
+     * getExpensiveRenderer() is only called by IDEA 2020.3+, older versions will just show the PSI text
+     */
+    private static class ResolvingLookup extends LookupElementDecorator<LookupElement>
+    {
+        final private CaretValue caretValue;
+        // null for key with dynamic name, like `$arr[$i] = ...`
+        final private @Nullable String keyName;
+        final private Opt<String> commentOpt;
+
+        ResolvingLookup(LookupElement delegate, CaretValue caretValue, @Nullable String keyName, Opt<String> commentOpt) {
+            super(delegate);
+            this.caretValue = caretValue;
+            this.keyName = keyName;
+            this.commentOpt = commentOpt;
+        }
+
+        public @Nullable LookupElementRenderer<? extends LookupElement> getExpensiveRenderer() {
+            return new LookupElementRenderer<LookupElement>() {
+                @Override
+                public void renderElement(LookupElement element, LookupElementPresentation presentation) {
+                    getDelegate().renderElement(presentation);
+                    if (!caretValue.caretPsi.isValid()) {
+                        return;
+                    }
+                    T2<String, String> briefs = caretValue.getKeyBriefs(keyName);
+                    String briefVal = briefs.a;
+                    if (!briefVal.equals("")) {
+                        String lookupString = getDelegate().getLookupString();
+                        presentation.setTailText(prepareTailText(lookupString.length(), briefVal, commentOpt), true);
+                    }
+                    String ideaType = briefs.b;
+                    if (!ideaType.equals("")) {
+                        presentation.setTypeText(ideaType);
+                    }
+                }
+            };
+        }
+    }
+
     private static enum LookupKeyKind { NAME, INDEX, VAR };
 
     private static class LookupKey {
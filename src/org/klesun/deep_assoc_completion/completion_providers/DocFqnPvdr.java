@@ -8,10 +8,8 @@ import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiFileFactory;
 import com.intellij.util.ProcessingContext;
 import com.jetbrains.php.PhpIndex;
-import com.jetbrains.php.lang.PhpLanguage;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocType;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.impl.tags.PhpDocReturnTagImpl;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.tags.PhpDocTag;
@@ -104,8 +102,7 @@ public class DocFqnPvdr extends CompletionProvider<CompletionParameters>
             .fop(match -> match.gat(0))
             .fap(expr -> {
                 String fakeFileText = DocParamRes.EXPR_PREFIX + expr + DocParamRes.EXPR_POSTFIX;
-                Opt<PsiFile> fakeFileOpt = opt(PsiFileFactory.getInstance(tagValue.getProject())
-                    .createFileFromText(PhpLanguage.INSTANCE, fakeFileText));
+                Opt<PsiFile> fakeFileOpt = opt(DocParamRes.parseFakeFile(fakeFileText, tagValue.getProject(), som(tagValue)));
                 return It.cnc(
                     // method name completion
                     extractTypedFqnPart(expr, tagValue.getProject(), tagValue)
@@ -154,7 +151,8 @@ public class DocFqnPvdr extends CompletionProvider<CompletionParameters>
             return;
         }
         int depth = getMaxDepth(parameters);
-        SearchCtx search = new SearchCtx(parameters).setDepth(depth);
+        SearchCtx search = new SearchCtx(parameters).setDepth(depth)
+            .setTimeout(AssocKeyPvdr.getTimeout(parameters));
 
         opt(parameters.getPosition().getParent())
             .fap(tagValue -> parseTagValue(tagValue, search))
@@ -169,7 +167,8 @@ public class DocFqnPvdr extends CompletionProvider<CompletionParameters>
             if (docTag instanceof PhpDocReturnTagImpl) {
                 regex = returnRegex;
             }
-            SearchCtx search = new SearchCtx(parameters).setDepth(getMaxDepth(parameters));
+            SearchCtx search = new SearchCtx(parameters).setDepth(getMaxDepth(parameters))
+                .setTimeout(AssocKeyPvdr.getTimeout(parameters));
             parseDocValue(docTag.getTagValue(), search, docTag, regex)
                 .fch(result::addElement);
         });
@@ -201,7 +201,8 @@ public class ObjMemberPvdr extends CompletionProvider<CompletionParameters>
             hasBuiltIns = true;
         }
         SearchCtx search = new SearchCtx(proj)
-            .setDepth(AssocKeyPvdr.getMaxDepth(parameters));
+            .setDepth(AssocKeyPvdr.getMaxDepth(parameters))
+            .setTimeout(AssocKeyPvdr.getTimeout(parameters));
 
         Dict<String> times = new Dict<>(list());
         It<LookupElement> deepOptions = It(list());
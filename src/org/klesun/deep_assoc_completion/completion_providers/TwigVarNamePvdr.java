@@ -127,7 +127,8 @@ public class TwigVarNamePvdr extends CompletionProvider<CompletionParameters>
     private Opt<ExprCtx> makeExprCtx(CompletionParameters parameters) {
         return opt(parameters.getOriginalPosition()).map(caretLeaf -> {
             int depth = AssocKeyPvdr.getMaxDepth(parameters);
-            SearchCtx search = new SearchCtx(parameters).setDepth(depth);
+            SearchCtx search = new SearchCtx(parameters).setDepth(depth)
+                .setTimeout(AssocKeyPvdr.getTimeout(parameters));
             FuncCtx funcCtx = new FuncCtx(search);
             search.isMain = true;
             return new ExprCtx(funcCtx, caretLeaf, 0);
@@ -263,7 +263,8 @@ public class UsedStrValsPvdr extends CompletionProvider<CompletionParameters>
     public static It<DeepType> resolve(StringLiteralExpression lit, boolean isAutoPopup)
     {
         SearchCtx search = new SearchCtx(lit.getProject())
-            .setDepth(AssocKeyPvdr.getMaxDepth(isAutoPopup, lit.getProject()));
+            .setDepth(AssocKeyPvdr.getMaxDepth(isAutoPopup, lit.getProject()))
+            .setTimeout(AssocKeyPvdr.getTimeout(isAutoPopup, lit.getProject()));
         FuncCtx funcCtx = new FuncCtx(search);
         IExprCtx exprCtx = new ExprCtx(funcCtx, lit, 0);
 
@@ -137,7 +137,8 @@ public class VarNamePvdr extends CompletionProvider<CompletionParameters>
     private static It<DeepType> resolve(VariableImpl caretVar, boolean isAutoPopup)
     {
         SearchCtx search = new SearchCtx(caretVar.getProject())
-            .setDepth(AssocKeyPvdr.getMaxDepth(isAutoPopup, caretVar.getProject()));
+            .setDepth(AssocKeyPvdr.getMaxDepth(isAutoPopup, caretVar.getProject()))
+            .setTimeout(AssocKeyPvdr.getTimeout(isAutoPopup, caretVar.getProject()));
         if (isAutoPopup) {
             // it would be sad if it deeply scanned global
             // vars in whole project when you just type a var
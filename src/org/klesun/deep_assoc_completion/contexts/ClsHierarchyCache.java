@@ -0,0 +1,126 @@
+package org.klesun.deep_assoc_completion.contexts;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.jetbrains.php.PhpIndex;
+import com.jetbrains.php.lang.psi.elements.PhpClass;
+import org.klesun.lang.It;
+import org.klesun.lang.L;
+import org.klesun.lang.Lang;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * PhpIndex lookups of classes and their hierarchy shared between searches, since
+ * same FQNs are looked up again and again, and getAllSubclasses() of something
+ * like Model in a project with 40k classes takes a lot of time
+ *
+ * everything is dropped on any change outside of function bodies, as there is
+ * no reliable way to tell whether the change affected some class declaration,
+ * typing inside a function body does not affect the hierarchy so it is ignored
+ */
+public class ClsHierarchyCache
+{
+    final private Project project;
+    private long modCount = -1;
+    final private Map<String, L<PhpClass>> fqnToAny = new ConcurrentHashMap<>();
+    final private Map<String, L<PhpClass>> fqnToClasses = new ConcurrentHashMap<>();
+    final private Map<String, L<PhpClass>> nameToAny = new ConcurrentHashMap<>();
+    final private Map<String, L<PhpClass>> fqnToSubclasses = new ConcurrentHashMap<>();
+    final private Map<PhpClass, L<PhpClass>> clsToSupers = new ConcurrentHashMap<>();
+
+    public ClsHierarchyCache(Project project)
+    {
+        this.project = project;
+    }
+
+    /** falls back to a not shared instance if service is not available, like in default project */
+    public static ClsHierarchyCache inst(Project project)
+    {
+        return opt(ServiceManager.getService(project, ClsHierarchyCache.class))
+            .def(new ClsHierarchyCache(project));
+    }
+
+    private long getCurrentModCount()
+    {
+        return PsiModificationTracker.SERVICE.getInstance(project).getOutOfCodeBlockModificationCount();
+    }
+
+    /** @return mod count the cached entries correspond to */
+    private synchronized long checkModCount()
+    {
+        long current = getCurrentModCount();
+        if (current != modCount) {
+            fqnToAny.clear();
+            fqnToClasses.clear();
+            nameToAny.clear();
+            fqnToSubclasses.clear();
+            clsToSupers.clear();
+            modCount = current;
+        }
+        return modCount;
+    }
+
+    /**
+     * not computeIfAbsent(), since PhpIndex may take long and would block other keys
+     *
+     * result is not stored if declarations changed during the lookup, since it may be
+     * already stale, synchronized with the clear in checkModCount()
+     */
+    private <K> L<PhpClass> getCached(Map<K, L<PhpClass>> map, K key, Lang.S<Iterable<PhpClass>> lookup)
+    {
+        long lookupModCount = checkModCount();
+        L<PhpClass> cached = map.get(key);
+        if (cached == null) {
+            cached = L(lookup.get());
+            synchronized (this) {
+                if (modCount == lookupModCount && getCurrentModCount() == lookupModCount) {
+                    map.put(key, cached);
+                }
+            }
+        }
+        return cached;
+    }
+
+    /** classes, interfaces and traits */
+    public L<PhpClass> getAnyByFqn(String fqn)
+    {
+        return getCached(fqnToAny, fqn, () -> PhpIndex.getInstance(project).getAnyByFQN(fqn));
+    }
+
+    public L<PhpClass> getClassesByFqn(String fqn)
+    {
+        return getCached(fqnToClasses, fqn, () -> PhpIndex.getInstance(project).getClassesByFQN(fqn));
+    }
+
+    /** @param name - without namespace, only classes and interfaces */
+    public L<PhpClass> getAnyByName(String name)
+    {
+        return getCached(nameToAny, name, () -> {
+            PhpIndex idx = PhpIndex.getInstance(project);
+            return It.cnc(
+                idx.getClassesByName(name),
+                idx.getInterfacesByName(name)
+            );
+        });
+    }
+
+    public L<PhpClass> getAllSubclasses(String fqn)
+    {
+        return getCached(fqnToSubclasses, fqn, () -> PhpIndex.getInstance(project).getAllSubclasses(fqn));
+    }
+
+    /** direct parent class, implemented interfaces and used traits */
+    public L<PhpClass> getSupers(PhpClass cls)
+    {
+        return getCached(clsToSupers, cls, () -> It.cnc(
+            opt(cls.getSuperFQN()).fap(fqn -> getClassesByFqn(fqn)),
+            It(cls.getImplementedInterfaces()),
+            It(cls.getTraits())
+        ));
+    }
+}
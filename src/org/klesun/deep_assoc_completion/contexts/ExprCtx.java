@@ -2,15 +2,12 @@ package org.klesun.deep_assoc_completion.contexts;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiFile;
 import com.jetbrains.php.lang.psi.elements.*;
-import com.jetbrains.php.lang.psi.elements.impl.FieldReferenceImpl;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.structures.DeepType;
 import org.klesun.lang.*;
 
-import java.util.Collection;
-import java.util.Map;
+import java.util.Set;
 
 import static org.klesun.lang.Lang.*;
 
@@ -20,18 +17,75 @@ import static org.klesun.lang.Lang.*;
  */
 public class ExprCtx implements IExprCtx {
     final public int depth;
+    final private static long HASH_BASE = 0x100000001B3L;
+
     final private FuncCtx funcCtx;
     final public PsiElement expr;
     final public Opt<ExprCtx> parent;
+    // filled only in debug/profile mode, otherwise finished sub-expressions would be kept in
+    // memory till the end of search, with all the PSI and call contexts they reference
     final public L<ExprCtx> children = list();
     public boolean doNotCache = false;
     public Opt<Integer> typeCnt = non();
+    // filled only when search is profiled
+    public long startNanos = -1;
+    public long endNanos = -1;
+    public Opt<String> resolver = non();
+    public boolean isFromCache = false;
+    // functions/files the types of this expression were taken from, for project cache invalidation
+    private Set<ProjectTypeCache.Dep> deps = null;
+    // function/field/doc the expression is in, sub-expressions usually share it
+    private ProjectTypeCache.Dep scopeDep = null;
+
+    // expression chain from root with consecutive duplicates collapsed, kept
+    // incrementally so that recursion check did not have to walk it each time
+    final private ExprCtx chainNode;
+    final private ExprCtx prevChainNode;
+    final private int chainLen;
+    // jump to an ancestor chain node, lets reach any of them in log steps
+    final private ExprCtx chainJump;
+    // rolling hash of all chain expressions, used to compare chain segments
+    final private long chainHash;
+    // last chain node of each expression on the path
+    final private PersistentMap<PsiElement, ExprCtx> chainExprs;
+    // closest chain node before this one with same expression
+    final private ExprCtx prevSameExpr;
 
     private ExprCtx(FuncCtx funcCtx, PsiElement expr, int depth, Opt<ExprCtx> parent) {
         this.funcCtx = funcCtx;
         this.expr = expr;
         this.depth = depth;
         this.parent = parent;
+
+        ExprCtx par = parent.def(null);
+        if (par != null && par.expr.equals(expr)) {
+            this.chainNode = par.chainNode;
+            this.prevChainNode = par.prevChainNode;
+            this.chainLen = par.chainLen;
+            this.chainJump = par.chainJump;
+            this.chainHash = par.chainHash;
+            this.chainExprs = par.chainExprs;
+            this.prevSameExpr = par.prevSameExpr;
+        } else if (par != null) {
+            ExprCtx prev = par.chainNode;
+            ExprCtx jump = prev.chainJump;
+            this.chainNode = this;
+            this.prevChainNode = prev;
+            this.chainLen = prev.chainLen + 1;
+            this.chainJump = prev.chainLen - jump.chainLen == jump.chainLen - jump.chainJump.chainLen
+                ? jump.chainJump : prev;
+            this.chainHash = prev.chainHash * HASH_BASE + hashExpr(expr);
+            this.prevSameExpr = prev.chainExprs.get(expr);
+            this.chainExprs = prev.chainExprs.put(expr, this);
+        } else {
+            this.chainNode = this;
+            this.prevChainNode = null;
+            this.chainLen = 1;
+            this.chainJump = this;
+            this.chainHash = hashExpr(expr);
+            this.prevSameExpr = null;
+            this.chainExprs = PersistentMap.<PsiElement, ExprCtx>empty().put(expr, this);
+        }
     }
 
     public ExprCtx(FuncCtx funcCtx, PsiElement expr, int depth) {
@@ -57,10 +111,18 @@ public class ExprCtx implements IExprCtx {
         return funcCtx;
     }
 
+    private void addChild(ExprCtx child) {
+        if (funcCtx.getSearch().keepsExprTree()) {
+            synchronized (children) {
+                children.add(child);
+            }
+        }
+    }
+
     private ExprCtx subExpr(PsiElement expr, FuncCtx funcCtx) {
         ExprCtx nextCtx = new ExprCtx(funcCtx, expr, depth + 1, som(this));
         nextCtx.doNotCache = this.doNotCache;
-        children.add(nextCtx);
+        addChild(nextCtx);
         return nextCtx;
     }
 
@@ -69,11 +131,16 @@ public class ExprCtx implements IExprCtx {
     }
 
     public ExprCtx subCtxDoc(PsiElement fakeFileSource) {
-        FuncCtx funcSubCtx = funcCtx.subCtxEmpty();
-        funcSubCtx.fakeFileSource = som(fakeFileSource);
-        funcSubCtx.clsIdeaType = getSelfType();
-        funcSubCtx.instGetter = funcCtx.instGetter;
-        return subExpr(expr, funcSubCtx);
+        return subExpr(expr, funcCtx.subCtxDoc(fakeFileSource));
+    }
+
+    public ExprCtx subCtxProbe() {
+        return subExpr(expr, funcCtx.subCtxProbe());
+    }
+
+    /** whether resolution used args or $this of the function, see FuncCtx::subCtxProbe() */
+    public boolean wasFuncCtxRead() {
+        return funcCtx.wasRead();
     }
 
     public ExprCtx subCtxDirect(FunctionReference funcCall) {
@@ -125,34 +192,130 @@ public class ExprCtx implements IExprCtx {
         return funcCtx.getSearch();
     }
 
-    public Map<PsiFile, Collection<FieldReferenceImpl>> getFieldRefCache() {
-        return funcCtx.getSearch().fileToFieldRefs;
-    }
-
     public It<DeepType> getThisType() {
-        return funcCtx.instGetter.fap(g -> g.get().types);
+        return funcCtx.getInstGetter().fap(g -> g.get().types);
     }
 
     public Opt<PhpType> getSelfType() {
-        return funcCtx.clsIdeaType;
+        return funcCtx.getSelfType();
     }
 
     public L<T2<String, S<MemIt<DeepType>>>> getClosureVars() {
-        return funcCtx.closureVars;
+        return funcCtx.getClosureVars();
     }
 
     public IIt<DeepType> findExprType(PhpExpression expr) {
         return funcCtx.getSearch().findExprType(expr, subExpr(expr, funcCtx));
     }
 
+    public It<DeepType> findSummarized(PsiElement source, String kind, F<IExprCtx, It<DeepType>> resolve) {
+        return funcCtx.getSearch().findSummarized(source, kind, this, resolve);
+    }
+
     public It<DeepType> limitResolveDepth(int depthLimit, PhpExpression expr) {
         int depth = Math.max(funcCtx.getSearch().maxDepth - depthLimit, this.depth);
         ExprCtx nextCtx = new ExprCtx(funcCtx, expr, depth, som(this));
         nextCtx.doNotCache  = true;
-        children.add(nextCtx);
+        addChild(nextCtx);
         return It(nextCtx.findExprType(expr));
     }
 
+    private static long hashExpr(PsiElement expr) {
+        return (expr.hashCode() + 1L) * 0x9E3779B97F4A7C15L;
+    }
+
+    private static long pow(long base, int exp) {
+        long result = 1;
+        for (; exp > 0; exp >>= 1) {
+            if ((exp & 1) != 0) {
+                result *= base;
+            }
+            base *= base;
+        }
+        return result;
+    }
+
+    /** hash of chain expressions after the from node up to the to node */
+    private static long segmentHash(ExprCtx from, ExprCtx to) {
+        long fromHash = from != null ? from.chainHash : 0;
+        int fromLen = from != null ? from.chainLen : 0;
+        return to.chainHash - fromHash * pow(HASH_BASE, to.chainLen - fromLen);
+    }
+
+    /** @return chain node at this position from root, null for 0 */
+    private ExprCtx chainAncestor(int chainLen) {
+        if (chainLen < 1) {
+            return null;
+        }
+        ExprCtx node = chainNode;
+        while (node.chainLen > chainLen) {
+            node = node.chainJump.chainLen >= chainLen ? node.chainJump : node.prevChainNode;
+        }
+        return node;
+    }
+
+    /**
+     * imagine sequence: a b c d e f g e f g
+     *                           ^_____^_____
+     * I'm not sure this assumption is right, but I'll try to
+     * treat any case where end repeats pre-end as recursion
+     *
+     * the pre-end must start right after an earlier occurrence of the last
+     * expression, so only these are checked, by comparing segment hashes
+     */
+    public boolean isRecursion()
+    {
+        for (ExprCtx prev = prevSameExpr; prev != null; prev = prev.prevSameExpr) {
+            int period = chainLen - prev.chainLen;
+            if (period * 2 > chainLen) {
+                break;
+            }
+            ExprCtx start = prev.chainAncestor(prev.chainLen - period);
+            if (segmentHash(prev, chainNode) == segmentHash(start, prev)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** mark this expression and all its parents as depending on the code */
+    public void addDep(ProjectTypeCache.Dep dep)
+    {
+        for (ExprCtx ctx = this; ctx != null; ctx = ctx.parent.def(null)) {
+            Set<ProjectTypeCache.Dep> ctxDeps = ctx.getDeps();
+            if (!ctxDeps.add(dep)) {
+                // parents already have it
+                break;
+            }
+        }
+    }
+
+    /** @return scope of the closest parent expression that was resolved through project cache */
+    public Opt<ProjectTypeCache.Dep> getParentScopeDep()
+    {
+        for (ExprCtx ctx = parent.def(null); ctx != null; ctx = ctx.parent.def(null)) {
+            if (ctx.scopeDep != null) {
+                return som(ctx.scopeDep);
+            }
+        }
+        return non();
+    }
+
+    public void setScopeDep(ProjectTypeCache.Dep scopeDep)
+    {
+        this.scopeDep = scopeDep;
+        addDep(scopeDep);
+    }
+
+    /** live set - can be appended by lazily resolved keys after expression was iterated */
+    public synchronized Set<ProjectTypeCache.Dep> getDeps()
+    {
+        if (deps == null) {
+            deps = ProjectTypeCache.makeDepSet();
+        }
+        return deps;
+    }
+
     public int getDepth()
     {
         return depth;
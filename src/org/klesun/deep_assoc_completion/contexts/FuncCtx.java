@@ -12,7 +12,12 @@ import org.klesun.deep_assoc_completion.structures.Build;
 import org.klesun.deep_assoc_completion.structures.Key;
 import org.klesun.lang.*;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** a node in called function stack trace with args */
 public class FuncCtx extends Lang implements IFuncCtx
@@ -32,7 +37,17 @@ public class FuncCtx extends Lang implements IFuncCtx
     public Opt<PsiElement> fakeFileSource = opt(null);
     private L<StackTraceElement> debugCtorTrace = L();
 
-    private HashMap<Integer, Mt> cachedArgs = new HashMap<>();
+    private Map<Integer, CachedArg> cachedArgs = new ConcurrentHashMap<>();
+    private Integer hash = null;
+    private Set<String> clsFqns = null;
+    // set when this is the canonical instance among equal contexts of the search
+    private boolean isInterned = false;
+    // set when args or $this were used in resolution, see SearchCtx::findSummarized()
+    private volatile boolean wasRead = false;
+    // context $this of this one was taken from, it's also marked when $this is used
+    private Opt<FuncCtx> selfSource = non();
+    // probe is not equal to any other context, so that it did not take results of others from cache
+    private boolean isProbe = false;
 
     public FuncCtx(SearchCtx search)
     {
@@ -62,12 +77,9 @@ public class FuncCtx extends Lang implements IFuncCtx
 
     private Mt getCached(int index, S<Mt> argGetter)
     {
-        if (!cachedArgs.containsKey(index)) {
-            cachedArgs.put(index, Mt.CIRCULAR_REFERENCE);
-            Mt mt = argGetter.get();
-            cachedArgs.replace(index, mt);
-        }
-        return cachedArgs.get(index);
+        return cachedArgs
+            .computeIfAbsent(index, i -> new CachedArg(search.isParallel()))
+            .get(argGetter);
     }
 
     private Opt<Mt> getPassedVariadicPart(int order)
@@ -88,8 +100,26 @@ public class FuncCtx extends Lang implements IFuncCtx
             .map(Mt::mem);
     }
 
+    private void markRead()
+    {
+        wasRead = true;
+    }
+
+    private void markSelfRead()
+    {
+        markRead();
+        selfSource.thn(src -> src.markSelfRead());
+    }
+
+    /** whether resolution result may depend on args or $this of this context */
+    public boolean wasRead()
+    {
+        return wasRead;
+    }
+
     public Opt<Mt> getArg(ArgOrder orderObj)
     {
+        markRead();
         Opt<Mt> fromVariadic = getPassedVariadicPart(orderObj.order);
         if (fromVariadic.has()) {
             if (orderObj.isVariadic) {
@@ -126,10 +156,10 @@ public class FuncCtx extends Lang implements IFuncCtx
 
     public FuncCtx subCtxDirect(FunctionReference funcCall, F<PhpExpression, IIt<DeepType>> findExprType)
     {
-        FuncCtx self = subCtxDirectGeneric(funcCall, findExprType);
+        FuncCtx self = makeDirectCtx(funcCall, findExprType);
         Tls.cast(MethodReference.class, funcCall)
             .thn(methCall -> self.setThisType(methCall, findExprType));
-        return self;
+        return search.intern(self);
     }
 
     /** the property name passed to the __get($propName) */
@@ -147,21 +177,21 @@ public class FuncCtx extends Lang implements IFuncCtx
         );
         FuncCtx subCtx = new FuncCtx(this, argGetter.arr(), fieldRef, EArgPsiType.DIRECT);
         subCtx.setThisType(fieldRef, findExprType);
-        return subCtx;
+        return search.intern(subCtx);
     }
 
     public FuncCtx subCtxMem(MemberReference fieldRef, F<PhpExpression, IIt<DeepType>> findExprType)
     {
         FuncCtx subCtx = new FuncCtx(this, L(), fieldRef, EArgPsiType.DIRECT);
         subCtx.setThisType(fieldRef, findExprType);
-        return subCtx;
+        return search.intern(subCtx);
     }
 
     public FuncCtx subCtxSelfCls(PhpClass clsPsi)
     {
         FuncCtx subCtx = new FuncCtx(this, L(), clsPsi, EArgPsiType.SELF_CLS);
         subCtx.clsIdeaType = som(clsPsi.getType());
-        return subCtx;
+        return search.intern(subCtx);
     }
 
     public FuncCtx subCtxThisCls(PhpClass clsPsi)
@@ -170,18 +200,23 @@ public class FuncCtx extends Lang implements IFuncCtx
         PhpType pst = clsPsi.getType();
         subCtx.clsIdeaType = som(pst);
         subCtx.instGetter = som(() -> new DeepType(clsPsi, pst).mt());
-        return subCtx;
+        return search.intern(subCtx);
     }
 
     public FuncCtx subCtxDirect(NewExpression funcCall, F<PhpExpression, IIt<DeepType>> findExprType)
     {
-        FuncCtx self = subCtxDirectGeneric(funcCall, findExprType);
+        FuncCtx self = makeDirectCtx(funcCall, findExprType);
         opt(funcCall.getClassReference())
             .thn(ref -> self.clsIdeaType = opt(ref.getType()));
-        return self;
+        return search.intern(self);
     }
 
     public FuncCtx subCtxDirectGeneric(ParameterListOwner funcCall, F<PhpExpression, IIt<DeepType>> findExprType)
+    {
+        return search.intern(makeDirectCtx(funcCall, findExprType));
+    }
+
+    private FuncCtx makeDirectCtx(ParameterListOwner funcCall, F<PhpExpression, IIt<DeepType>> findExprType)
     {
         L<PsiElement> psiArgs = L(funcCall.getParameters());
         L<S<Mt>> argGetters = psiArgs.map((psi) -> S(() ->
@@ -206,7 +241,7 @@ public class FuncCtx extends Lang implements IFuncCtx
                 ? findExprType.apply(argArr).fap(Mt::getElSt).wap(Mt::mem)
                 : Mt.INVALID_PSI))
             .arr();
-        return new FuncCtx(this, argGetters, argArr, EArgPsiType.ARR);
+        return search.intern(new FuncCtx(this, argGetters, argArr, EArgPsiType.ARR));
     }
 
     /** when you have expression PSI and it is not directly passed to the func, ex. call_user_func_array() */
@@ -220,36 +255,80 @@ public class FuncCtx extends Lang implements IFuncCtx
             String key = i + "";
             argGetters.add(() -> getMt.get().getKey(key));
         }
-        return new FuncCtx(this, argGetters, args, EArgPsiType.INDIRECT);
+        return search.intern(new FuncCtx(this, argGetters, args, EArgPsiType.INDIRECT));
     }
 
     public FuncCtx subCtxEmpty()
     {
-        return new FuncCtx(this, list(), null, EArgPsiType.NONE);
+        return search.intern(new FuncCtx(this, list(), null, EArgPsiType.NONE));
+    }
+
+    /** not interned, since instance getter is taken from outside */
+    public FuncCtx subCtxDoc(PsiElement fakeFileSource)
+    {
+        FuncCtx docCtx = new FuncCtx(this, list(), null, EArgPsiType.NONE);
+        docCtx.fakeFileSource = som(fakeFileSource);
+        docCtx.clsIdeaType = this.clsIdeaType;
+        docCtx.instGetter = this.instGetter;
+        docCtx.selfSource = som(this);
+        return docCtx;
+    }
+
+    /**
+     * context with same args and $this that remembers whether resolution used
+     * them, so that result was correct for this call either way, not interned
+     * since this flag is specific to the instance
+     */
+    public FuncCtx subCtxProbe()
+    {
+        FuncCtx probe = new FuncCtx(this, argGetters, uniqueRef.def(null), argPsiType);
+        probe.variadicOrders = this.variadicOrders;
+        probe.instGetter = this.instGetter;
+        probe.clsIdeaType = this.clsIdeaType;
+        probe.closureVars = this.closureVars;
+        probe.selfSource = this.selfSource;
+        probe.isProbe = true;
+        return probe;
     }
 
+    /** not interned, since closure vars are not part of equality */
     public FuncCtx withClosure(L<T2<String, S<MemIt<DeepType>>>> closureVars, IFuncCtx outsideCtx)
     {
         FuncCtx closCtx = new FuncCtx(parent.def(this), argGetters, uniqueRef.def(null), EArgPsiType.INDIRECT);
         closCtx.closureVars = closureVars; // probably should add to caching criteria...
         closCtx.fakeFileSource = this.fakeFileSource;
-        closCtx.clsIdeaType = outsideCtx.getSelfType();
-        closCtx.instGetter = outsideCtx.getInstGetter();
+        if (outsideCtx instanceof FuncCtx) {
+            // closure may not use $this at all, so mark outside ctx only when it does
+            FuncCtx outside = (FuncCtx)outsideCtx;
+            closCtx.clsIdeaType = outside.clsIdeaType;
+            closCtx.instGetter = outside.instGetter;
+            closCtx.selfSource = som(outside);
+        } else {
+            closCtx.clsIdeaType = outsideCtx.getSelfType();
+            closCtx.instGetter = outsideCtx.getInstGetter();
+        }
         closCtx.variadicOrders = this.variadicOrders;
         closCtx.cachedArgs = this.cachedArgs;
         return closCtx;
     }
 
-    /** will return false if function was called with 0 arguments or args unknown */
-    public boolean hasArgs()
+    private boolean argsPresent()
     {
         // this probably must also include clsIdeaType.has()...
         return argGetters.size() > 0 || instGetter.has();
     }
 
+    /** will return false if function was called with 0 arguments or args unknown */
+    public boolean hasArgs()
+    {
+        markRead();
+        return argsPresent();
+    }
+
     /** will return true if function was called with 0 arguments */
     public boolean areArgsKnown()
     {
+        markRead();
         return !list(EArgPsiType.NONE, EArgPsiType.SELF_CLS, EArgPsiType.THIS_CLS).contains(argPsiType);
     }
 
@@ -260,37 +339,167 @@ public class FuncCtx extends Lang implements IFuncCtx
 
     public Opt<PhpType> getSelfType()
     {
+        markSelfRead();
         return clsIdeaType;
     }
 
     public Opt<S<Mt>> getInstGetter()
     {
+        markSelfRead();
         return instGetter;
     }
 
-    private L<Object> getHashValues()
+    public L<T2<String, S<MemIt<DeepType>>>> getClosureVars()
     {
-        L<Object> values = list();
-        values.add(argPsiType);
-        values.add(clsIdeaType.map(ArrCtorRes::ideaTypeToFqn));
-        values.add(hasArgs());
-        if (!hasArgs()) return values;
-        values.add(uniqueRef);
-        if (!uniqueRef.has()) return values;
-        values.add(parent);
-        return values;
+        markRead();
+        return closureVars;
     }
 
+    private Set<String> getClsFqns()
+    {
+        if (clsFqns == null) {
+            clsFqns = clsIdeaType.map(ArrCtorRes::ideaTypeToFqn).def(new HashSet<>());
+        }
+        return clsFqns;
+    }
+
+    /** whether context was created for a function call, not for $this, static or empty args */
+    private boolean isCallFrame()
+    {
+        return argPsiType == EArgPsiType.DIRECT
+            || argPsiType == EArgPsiType.ARR
+            || argPsiType == EArgPsiType.INDIRECT;
+    }
+
+    /** whether parent should be compared, see hashCode(int) */
+    private boolean hasFramesLeft(int framesLeft)
+    {
+        return uniqueRef.has() && (framesLeft != 1 || !isCallFrame());
+    }
+
+    /** frames left for the parent, only calls are counted */
+    private int parentFramesLeft(int framesLeft)
+    {
+        return isCallFrame() ? framesLeft - 1 : framesLeft;
+    }
+
+    /**
+     * @param framesLeft - how many of the nested call sites to include, 0 means all
+     *                   of them, $this/static contexts in between are not counted.
+     *                   Like in k-CFA, limiting it lets same call reached from
+     *                   different callers share the cache at cost of some precision
+     */
+    private int hashCode(int framesLeft)
+    {
+        int result = argPsiType.hashCode();
+        result = 31 * result + getClsFqns().hashCode();
+        result = 31 * result + (argsPresent() ? 1 : 0);
+        result = 31 * result + fakeFileSource.map(System::identityHashCode).def(0);
+        if (argsPresent()) {
+            result = 31 * result + uniqueRef.hashCode();
+            if (hasFramesLeft(framesLeft)) {
+                result = 31 * result + (framesLeft <= 0
+                    ? parent.hashCode() // cached in the parent itself
+                    : parent.map(p -> p.hashCode(parentFramesLeft(framesLeft))).def(0));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * cached on first call - it happens when context is used as cache key,
+     * after all fields were assigned in the subCtx*() method that created it
+     */
     public int hashCode()
     {
-        return getHashValues().hashCode();
+        if (hash == null) {
+            hash = hashCode(search.getCallStringDepth());
+        }
+        return hash;
+    }
+
+    private boolean equals(FuncCtx that, int framesLeft)
+    {
+        if (this == that) {
+            return true;
+        } else if (this.argPsiType != that.argPsiType
+            || this.fakeFileSource.def(null) != that.fakeFileSource.def(null)
+            || this.argsPresent() != that.argsPresent()
+            || !this.getClsFqns().equals(that.getClsFqns())
+        ) {
+            return false;
+        } else if (!argsPresent()) {
+            return true;
+        } else if (!this.uniqueRef.equals(that.uniqueRef)) {
+            return false;
+        } else if (!hasFramesLeft(framesLeft)) {
+            return true;
+        } else if (framesLeft <= 0) {
+            return this.parent.equals(that.parent);
+        } else if (this.parent.has() && that.parent.has()) {
+            return this.parent.unw().equals(that.parent.unw(), parentFramesLeft(framesLeft));
+        } else {
+            return this.parent.has() == that.parent.has();
+        }
     }
 
     public boolean equals(Object thatRaw)
     {
-        return Tls.cast(FuncCtx.class, thatRaw)
-            .map(that -> this.getHashValues().equals(that.getHashValues()))
-            .def(false);
+        if (this == thatRaw) {
+            return true;
+        } else if (!(thatRaw instanceof FuncCtx)) {
+            return false;
+        }
+        FuncCtx that = (FuncCtx)thatRaw;
+        if (this.isProbe || that.isProbe) {
+            return false;
+        } else if (this.isInterned && that.isInterned && this.search == that.search) {
+            // there is just one canonical instance of each context in a search
+            return false;
+        } else if (this.hashCode() != that.hashCode()) {
+            return false;
+        } else {
+            return equals(that, search.getCallStringDepth());
+        }
+    }
+
+    private void addDetachedFrames(List<Object> frames, int framesLeft)
+    {
+        frames.add(argPsiType);
+        frames.add(getClsFqns());
+        frames.add(fakeFileSource.def(null));
+        frames.add(argsPresent());
+        if (argsPresent()) {
+            frames.add(uniqueRef.def(null));
+            if (hasFramesLeft(framesLeft)) {
+                int parentLeft = framesLeft <= 0 ? 0 : parentFramesLeft(framesLeft);
+                parent.thn(p -> p.addDetachedFrames(frames, parentLeft));
+            }
+        }
+    }
+
+    /**
+     * same fields that equals() compares, but without the search and arg getters, so that
+     * keys of project cache did not keep finished searches in memory
+     *
+     * @return non() for contexts that should not be shared, like the probe ones, since
+     *  they track what was read from them, and a shared result would hide these reads
+     */
+    public Opt<List<Object>> getDetachedKey()
+    {
+        for (FuncCtx ctx = this; ctx != null; ctx = ctx.parent.def(null)) {
+            if (ctx.isProbe) {
+                return non();
+            }
+        }
+        List<Object> frames = new ArrayList<>();
+        addDetachedFrames(frames, search.getCallStringDepth());
+        return som(frames);
+    }
+
+    void markInterned()
+    {
+        this.isInterned = true;
     }
 
     /** for debug */
@@ -330,4 +539,69 @@ public class FuncCtx extends Lang implements IFuncCtx
     {
         return getCallStack().size();
     }
+
+    /** arg resolved once per context, other threads wait for the one resolving it */
+    private static class CachedArg
+    {
+        // null when search is not parallel
+        final private OwnedLock lock;
+        private boolean resolving = false;
+        private volatile Mt value = null;
+
+        CachedArg(boolean parallel)
+        {
+            this.lock = parallel ? new OwnedLock() : null;
+        }
+
+        private Mt resolveSequentially(S<Mt> argGetter)
+        {
+            if (resolving) {
+                // arg resolved through itself
+                return Mt.CIRCULAR_REFERENCE;
+            }
+            resolving = true;
+            try {
+                value = argGetter.get();
+                return value;
+            } finally {
+                resolving = false;
+            }
+        }
+
+        private Mt resolveInParallel(S<Mt> argGetter)
+        {
+            if (!lock.lock()) {
+                // resolved through itself, in this thread or in the one waiting for us
+                return Mt.CIRCULAR_REFERENCE;
+            }
+            try {
+                if (value != null) {
+                    // resolved by other thread while we were waiting
+                    return value;
+                }
+                long cyclesBefore = OwnedLock.getBrokenCycles();
+                Mt mt = argGetter.get();
+                // if some thread gave up waiting for other, types may be missing, so
+                // it's left for the next caller to resolve it again instead of caching
+                if (OwnedLock.getBrokenCycles() == cyclesBefore) {
+                    value = mt;
+                }
+                return mt;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Mt get(S<Mt> argGetter)
+        {
+            Mt cached = value;
+            if (cached != null) {
+                return cached;
+            } else if (lock == null) {
+                return resolveSequentially(argGetter);
+            } else {
+                return resolveInParallel(argGetter);
+            }
+        }
+    }
 }
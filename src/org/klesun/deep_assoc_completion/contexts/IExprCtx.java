@@ -5,14 +5,10 @@ import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.jetbrains.php.lang.psi.elements.*;
-import com.jetbrains.php.lang.psi.elements.impl.FieldReferenceImpl;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.structures.DeepType;
 import org.klesun.lang.*;
 
-import java.util.Collection;
-import java.util.Map;
-
 import static org.klesun.lang.Lang.*;
 
 /**
@@ -39,13 +35,14 @@ public interface IExprCtx {
     Opt<PhpType> getSelfType();
     L<T2<String, S<MemIt<DeepType>>>> getClosureVars();
     Opt<PsiElement> getFakeFileSource();
-    Map<PsiFile, Collection<FieldReferenceImpl>> getFieldRefCache();
     Opt<Project> getProject();
     SearchCtx getSearch();
     int getDepth();
 
     IIt<DeepType> findExprType(PhpExpression expr);
     It<DeepType> limitResolveDepth(int depthLimit, PhpExpression expr);
+    /** for return type of a function or doc type that does not use call context, see SearchCtx::findSummarized() */
+    It<DeepType> findSummarized(PsiElement source, String kind, F<IExprCtx, It<DeepType>> resolve);
 
 
     /**
@@ -0,0 +1,68 @@
+package org.klesun.deep_assoc_completion.contexts;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiFileFactory;
+import com.jetbrains.php.lang.PhpLanguage;
+import org.klesun.lang.Opt;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * fake files made of expressions in phpdoc, so that same doc
+ * was not parsed again on every completion
+ *
+ * kept per project, since entries hold PSI of its docs
+ */
+public class ParsedDocCache
+{
+    // guard against memory overflow, each entry holds a fake file
+    final private static int MAX_PARSED_DOCS = 2000;
+
+    final private Project project;
+    // [file text, doc it was taken from] -> fake file, least recently used first
+    final private Map<List<Object>, PsiFile> parsedDocs = new LinkedHashMap<List<Object>, PsiFile>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, PsiFile> eldest) {
+            return size() > MAX_PARSED_DOCS;
+        }
+    };
+
+    public ParsedDocCache(Project project)
+    {
+        this.project = project;
+    }
+
+    /** falls back to a not shared instance if service is not available, like in default project */
+    public static ParsedDocCache inst(Project project)
+    {
+        return opt(ServiceManager.getService(project, ParsedDocCache.class))
+            .def(new ParsedDocCache(project));
+    }
+
+    public PsiFile parseFakeFile(String fileText, Opt<PsiElement> hostDoc)
+    {
+        List<Object> key = Arrays.asList(fileText, hostDoc.def(null));
+        synchronized (parsedDocs) {
+            PsiFile cached = parsedDocs.get(key);
+            if (cached != null && cached.isValid() && hostDoc.all(doc -> doc.isValid())) {
+                return cached;
+            } else if (cached != null) {
+                parsedDocs.remove(key);
+            }
+        }
+        PsiFile psiFile = PsiFileFactory.getInstance(project).createFileFromText(PhpLanguage.INSTANCE, fileText);
+        if (hostDoc.all(doc -> doc.isValid())) {
+            synchronized (parsedDocs) {
+                parsedDocs.put(key, psiFile);
+            }
+        }
+        return psiFile;
+    }
+}
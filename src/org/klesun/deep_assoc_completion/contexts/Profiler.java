@@ -0,0 +1,133 @@
+package org.klesun.deep_assoc_completion.contexts;
+
+import org.klesun.lang.L;
+import org.klesun.lang.Lang;
+import org.klesun.lang.Tls;
+
+/**
+ * formats expression tree of a profiled search (see SearchCtx::setProfile())
+ * for https://ui.perfetto.dev or chrome://tracing and for flamegraph.pl
+ *
+ * note that resolution is lazy, so "end" of an expression is the moment
+ * its last type was iterated, which may include time spent by the caller
+ */
+public class Profiler extends Lang
+{
+    final private ExprCtx root;
+    final private long zeroNanos;
+
+    public Profiler(ExprCtx root)
+    {
+        this.root = root;
+        this.zeroNanos = getAll(root)
+            .fop(ctx -> som(ctx.startNanos).flt(n -> n >= 0))
+            .rdc((min, n) -> Math.min(min, n), Long.MAX_VALUE);
+    }
+
+    private static L<ExprCtx> getAll(ExprCtx root)
+    {
+        L<ExprCtx> result = list();
+        L<ExprCtx> stack = list(root);
+        while (stack.size() > 0) {
+            ExprCtx ctx = stack.remove(stack.size() - 1);
+            result.add(ctx);
+            synchronized (ctx.children) {
+                stack.addAll(ctx.children);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isMeasured(ExprCtx ctx)
+    {
+        return ctx.startNanos >= 0;
+    }
+
+    /** when iteration was not finished, the expression lasted till its last child ended */
+    private static long getEndNanos(ExprCtx ctx)
+    {
+        long end = Math.max(ctx.endNanos, ctx.startNanos);
+        synchronized (ctx.children) {
+            for (ExprCtx child: ctx.children) {
+                if (isMeasured(child)) {
+                    end = Math.max(end, getEndNanos(child));
+                }
+            }
+        }
+        return end;
+    }
+
+    private static String getFrameName(ExprCtx ctx)
+    {
+        return ctx.resolver.def("?") + " " + SearchCtx.formatPsi(ctx.expr);
+    }
+
+    private static String jsonStr(String value)
+    {
+        StringBuilder result = new StringBuilder("\"");
+        for (char ch: value.toCharArray()) {
+            if (ch == '"' || ch == '\\') {
+                result.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                result.append(String.format("\\u%04x", (int)ch));
+            } else {
+                result.append(ch);
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /** @return trace event format JSON, one "complete" event per expression */
+    public String toChromeTrace()
+    {
+        L<String> events = getAll(root)
+            .flt(ctx -> isMeasured(ctx))
+            .map(ctx -> "{"
+                + "\"name\":" + jsonStr(getFrameName(ctx)) + ","
+                + "\"cat\":" + jsonStr(ctx.resolver.def("?")) + ","
+                + "\"ph\":\"X\","
+                + "\"ts\":" + ((ctx.startNanos - zeroNanos) / 1000.0) + ","
+                + "\"dur\":" + ((getEndNanos(ctx) - ctx.startNanos) / 1000.0) + ","
+                + "\"pid\":1,\"tid\":1,"
+                + "\"args\":{"
+                    + "\"depth\":" + ctx.depth + ","
+                    + "\"types\":" + ctx.typeCnt.map(cnt -> cnt + "").def("null") + ","
+                    + "\"fromCache\":" + ctx.isFromCache
+                + "}"
+            + "}")
+            .arr();
+        return "{\"traceEvents\":[\n" + Tls.implode(",\n", events) + "\n]}\n";
+    }
+
+    private void collectStacks(ExprCtx ctx, String prefix, L<String> lines)
+    {
+        long childrenNanos = 0;
+        String path = prefix;
+        if (isMeasured(ctx)) {
+            String frame = getFrameName(ctx).replace(";", ",");
+            path = prefix.equals("") ? frame : prefix + ";" + frame;
+        }
+        L<ExprCtx> children;
+        synchronized (ctx.children) {
+            children = L(ctx.children);
+        }
+        for (ExprCtx child: children) {
+            collectStacks(child, path, lines);
+            if (isMeasured(child)) {
+                childrenNanos += getEndNanos(child) - child.startNanos;
+            }
+        }
+        if (isMeasured(ctx)) {
+            long selfMicros = Math.max(0, (getEndNanos(ctx) - ctx.startNanos - childrenNanos) / 1000);
+            lines.add(path + " " + selfMicros);
+        }
+    }
+
+    /** @return "collapsed stack" format - a line per expression with its self time in microseconds */
+    public String toCollapsedStacks()
+    {
+        L<String> lines = list();
+        collectStacks(root, "", lines);
+        return Tls.implode("\n", lines) + "\n";
+    }
+}
@@ -0,0 +1,333 @@
+package org.klesun.deep_assoc_completion.contexts;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
+import com.jetbrains.php.lang.psi.elements.Field;
+import com.jetbrains.php.lang.psi.elements.Function;
+import org.klesun.deep_assoc_completion.structures.DeepType;
+import org.klesun.deep_assoc_completion.structures.PsiSig;
+import org.klesun.lang.L;
+import org.klesun.lang.Opt;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * resolved expression types shared between searches, so that typing one more
+ * character did not make us resolve same thousands of expressions from scratch
+ *
+ * unlike the cache in SearchCtx, only results with all keys and values resolved
+ * get here, and only if search did not run out of expression limit or time while
+ * resolving them, so that their lazy getters never ran in the search that created them
+ *
+ * each entry remembers the functions/files its expressions were taken from, so
+ * editing one function evicts only the types that were resolved through it
+ *
+ * entries of edited code are removed when accessed or when cache gets full,
+ * in the latter case the older half of entries is removed as well. Everything
+ * is dropped when IDE is low on memory
+ *
+ * keys are detached from the search they were resolved in, see PsiSig::detach()
+ */
+public class ProjectTypeCache
+{
+    // guard against memory overflow, each entry holds PSI and contexts
+    final public static int MAX_ENTRIES = 100000;
+    // same, but for the types in all entries, including nested keys and values
+    final public static int MAX_TYPES = 1000000;
+
+    final private Project project;
+    // order of puts, to evict the oldest entries when there are too many
+    final private AtomicLong lastSeq = new AtomicLong(0);
+    final private AtomicLong typeCount = new AtomicLong(0);
+    final private Map<PsiSig, Entry> sigToEntry = new ConcurrentHashMap<>();
+    final private Map<PsiElement, Dep> scopeToDep = new ConcurrentHashMap<>();
+    // return types of functions and doc types that do not depend on the call context
+    final private Map<List<Object>, Summary> keyToSummary = new ConcurrentHashMap<>();
+
+    public ProjectTypeCache(Project project)
+    {
+        this.project = project;
+        LowMemoryWatcher.register(this::clear, project);
+    }
+
+    private void clear()
+    {
+        sigToEntry.clear();
+        keyToSummary.clear();
+        scopeToDep.clear();
+        typeCount.set(0);
+    }
+
+    public static Opt<ProjectTypeCache> inst(Project project)
+    {
+        return opt(ServiceManager.getService(project, ProjectTypeCache.class));
+    }
+
+    private long getModCount()
+    {
+        return PsiModificationTracker.SERVICE.getInstance(project).getModificationCount();
+    }
+
+    /**
+     * outermost function, field or doc comment containing the PSI - the
+     * smallest piece of code that keeps its PSI on reparse after an edit
+     */
+    private static PsiElement getScope(PsiElement psi)
+    {
+        PsiElement scope = psi.getContainingFile();
+        for (PsiElement parent = psi; parent != null && !(parent instanceof PsiFile); parent = parent.getParent()) {
+            if (parent instanceof Function ||
+                parent instanceof Field ||
+                parent instanceof PhpDocComment
+            ) {
+                scope = parent;
+            }
+        }
+        return scope;
+    }
+
+    /** @return dependency on the code the expression was taken from */
+    public Opt<Dep> getDep(PsiElement psi)
+    {
+        long modCount = getModCount();
+        return opt(getScope(psi)).map(scope -> {
+            Dep dep = scopeToDep.get(scope);
+            if (dep == null || !dep.isValid(modCount)) {
+                dep = new Dep(scope, modCount);
+                scopeToDep.put(scope, dep);
+            }
+            return dep;
+        });
+    }
+
+    /**
+     * @param parentScope - scope of the expression this one was reached from, it is
+     *  reused if it contains the PSI, so that we walked up only till the scope, not the file
+     */
+    public Opt<Dep> getDep(PsiElement psi, Opt<Dep> parentScope)
+    {
+        long modCount = getModCount();
+        Opt<Dep> inherited = parentScope.flt(dep -> !(dep.scope instanceof PsiFile)
+            && dep.isValid(modCount)
+            && PsiTreeUtil.isAncestor(dep.scope, psi, false));
+        return inherited.has() ? inherited : getDep(psi);
+    }
+
+    /** drop entries of edited code, and the oldest ones if there are still too many */
+    private void prune(Map<?, ? extends Entry> keyToEntry)
+    {
+        long modCount = getModCount();
+        long minSeq = lastSeq.get() - MAX_ENTRIES / 2;
+        keyToEntry.values().removeIf(entry -> {
+            boolean remove = entry.seq < minSeq || !entry.isValid(modCount);
+            if (remove) {
+                typeCount.addAndGet(-entry.typeCount);
+            }
+            return remove;
+        });
+        scopeToDep.values().removeIf(dep -> !dep.isValid(modCount));
+    }
+
+    private boolean isFull(Map<?, ? extends Entry> keyToEntry)
+    {
+        return keyToEntry.size() >= MAX_ENTRIES
+            || typeCount.get() >= MAX_TYPES;
+    }
+
+    /**
+     * @param depthLeft - how many more levels the search is allowed to go from this
+     *  expression, result resolved with smaller limit may be missing some keys
+     */
+    public Opt<Entry> get(PsiSig sig, int depthLeft)
+    {
+        Opt<PsiSig> detached = sig.detach();
+        if (!detached.has()) {
+            return non();
+        }
+        long modCount = getModCount();
+        Entry entry = sigToEntry.get(detached.unw());
+        if (entry == null || entry.depthLeft < depthLeft) {
+            return non();
+        } else if (!entry.isValid(modCount)) {
+            if (sigToEntry.remove(detached.unw(), entry)) {
+                typeCount.addAndGet(-entry.typeCount);
+            }
+            return non();
+        } else {
+            return som(entry);
+        }
+    }
+
+    /**
+     * @param typeCount - of the types with all their nested keys and values, to limit memory
+     * @param deps - can be appended after the call if values of lazy keys are resolved later
+     */
+    public void put(PsiSig sig, L<DeepType> types, int typeCount, int depthLeft, Set<Dep> deps)
+    {
+        Opt<PsiSig> detached = sig.detach();
+        if (!detached.has()) {
+            return;
+        }
+        if (isFull(sigToEntry)) {
+            prune(sigToEntry);
+        }
+        Entry existing = sigToEntry.get(detached.unw());
+        if (existing == null || existing.depthLeft <= depthLeft) {
+            Entry entry = new Entry(types, typeCount, depthLeft, deps, lastSeq.incrementAndGet());
+            this.typeCount.addAndGet(typeCount);
+            opt(sigToEntry.put(detached.unw(), entry))
+                .thn(replaced -> this.typeCount.addAndGet(-replaced.typeCount));
+        }
+    }
+
+    private static List<Object> makeSummaryKey(PsiElement source, String kind)
+    {
+        return Arrays.asList(source, kind);
+    }
+
+    /** @param kind - what is resolved from the source, like "return" of a function or "var" of a doc */
+    public Opt<Summary> getSummary(PsiElement source, String kind, int depthLeft)
+    {
+        long modCount = getModCount();
+        List<Object> key = makeSummaryKey(source, kind);
+        Summary summary = keyToSummary.get(key);
+        if (summary == null || summary.depthLeft < depthLeft) {
+            return non();
+        } else if (!summary.isValid(modCount)) {
+            if (keyToSummary.remove(key, summary)) {
+                typeCount.addAndGet(-summary.typeCount);
+            }
+            return non();
+        } else {
+            return som(summary);
+        }
+    }
+
+    /** @param isCtxFree - false to remember that source uses args or $this, so that we did not try again */
+    public void putSummary(PsiElement source, String kind, L<DeepType> types, boolean isCtxFree, int depthLeft, Set<Dep> deps)
+    {
+        if (isFull(keyToSummary)) {
+            prune(keyToSummary);
+        }
+        getDep(source).thn(dep -> deps.add(dep));
+        Summary summary = new Summary(types, isCtxFree, depthLeft, deps, lastSeq.incrementAndGet());
+        typeCount.addAndGet(summary.typeCount);
+        opt(keyToSummary.put(makeSummaryKey(source, kind), summary))
+            .thn(replaced -> typeCount.addAndGet(-replaced.typeCount));
+    }
+
+    public int size()
+    {
+        return sigToEntry.size();
+    }
+
+    public static class Entry
+    {
+        final public L<DeepType> types;
+        final public Set<Dep> deps;
+        final int typeCount;
+        final int depthLeft;
+        final long seq;
+        private long checkedAt = -1;
+
+        Entry(L<DeepType> types, int typeCount, int depthLeft, Set<Dep> deps, long seq)
+        {
+            this.types = types;
+            this.typeCount = typeCount;
+            this.depthLeft = depthLeft;
+            this.deps = deps;
+            this.seq = seq;
+        }
+
+        boolean isValid(long modCount)
+        {
+            if (checkedAt == modCount) {
+                return true;
+            }
+            L<Dep> snapshot;
+            synchronized (deps) {
+                snapshot = L(deps);
+            }
+            if (snapshot.all(dep -> dep.isValid(modCount))) {
+                checkedAt = modCount;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /** return type of a function or type of a doc for all call contexts, keyed by the PSI and its text */
+    public static class Summary extends Entry
+    {
+        final public boolean isCtxFree;
+
+        Summary(L<DeepType> types, boolean isCtxFree, int depthLeft, Set<Dep> deps, long seq)
+        {
+            // only top level types are counted, nested ones are limited in SearchCtx::summarize()
+            super(types, types.size(), depthLeft, deps, seq);
+            this.isCtxFree = isCtxFree;
+        }
+    }
+
+    /**
+     * a function, field, doc comment or whole file types were taken from
+     * if file was changed, but text of the function stayed same, the
+     * types resolved from it are still considered valid
+     */
+    public static class Dep
+    {
+        final private PsiElement scope;
+        final private Opt<PsiFile> file;
+        private long fileStamp;
+        final private int textHash;
+        private long checkedAt;
+        private boolean valid = true;
+
+        private Dep(PsiElement scope, long modCount)
+        {
+            this.scope = scope;
+            this.file = opt(scope.getContainingFile());
+            this.fileStamp = file.map(f -> f.getModificationStamp()).def(-1L);
+            this.textHash = scope instanceof PsiFile ? 0 : scope.getText().hashCode();
+            this.checkedAt = modCount;
+        }
+
+        private boolean isValid(long modCount)
+        {
+            if (checkedAt == modCount || !valid) {
+                return valid;
+            }
+            checkedAt = modCount;
+            long currentStamp = file.map(f -> f.getModificationStamp()).def(-1L);
+            if (!scope.isValid()) {
+                valid = false;
+            } else if (currentStamp != fileStamp) {
+                valid = !(scope instanceof PsiFile)
+                    && scope.getText().hashCode() == textHash;
+                fileStamp = currentStamp;
+            }
+            return valid;
+        }
+    }
+
+    public static Set<Dep> makeDepSet()
+    {
+        return Collections.synchronizedSet(new HashSet<>());
+    }
+}
@@ -1,20 +1,26 @@
 package org.klesun.deep_assoc_completion.contexts;
 
 import com.intellij.codeInsight.completion.CompletionParameters;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
-import com.intellij.psi.PsiFile;
+import com.jetbrains.php.lang.psi.elements.Function;
 import com.jetbrains.php.lang.psi.elements.PhpExpression;
-import com.jetbrains.php.lang.psi.elements.impl.FieldReferenceImpl;
 import org.klesun.deep_assoc_completion.entry.DeepSettings;
+import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.deep_assoc_completion.resolvers.DirectTypeResolver;
 import org.klesun.deep_assoc_completion.structures.DeepType;
+import org.klesun.deep_assoc_completion.structures.Key;
 import org.klesun.deep_assoc_completion.structures.PsiSig;
 import org.klesun.lang.*;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SearchCtx extends Lang
 {
@@ -24,16 +30,50 @@ public class SearchCtx extends Lang
     public int maxDepth = 20;
     final public static boolean DEBUG_DEFAULT = false;
     public boolean debug = DEBUG_DEFAULT;
+    // bigger structures are not shared with other searches, see shareOnceResolved() and findSummarized()
+    final private static int MAX_SHARED_TYPES = 500;
+    // see measureResolved()
+    final private static int NOT_RESOLVED_YET = -1;
+    final private static int NOT_SHAREABLE = -2;
+    // docs and fields are resolved lazily key by key otherwise, so their probe should not
+    // resolve much more than completion would - bigger shapes are left unsummarized
+    final private static int MAX_SUMMARY_DOC_TYPES = 100;
+    // record timings and type counts of each expression, see Profiler.java
+    public boolean profile = false;
     private Opt<Double> timeout = opt(null);
     final public Opt<Project> project;
     // for performance measurement
-    private int expressionsResolved = 0;
+    final private AtomicInteger expressionsResolved = new AtomicInteger(0);
+    // resolve independent branches in separate threads, maps are concurrent for that
+    final private boolean parallel;
+    // arrays beyond this count in one expression are merged into one, see Mt::widen()
+    final private int wideningThreshold;
+    // contexts that differ only in callers further than that are same for caching, 0 - no limit
+    final private int callStringDepth;
     // direct type cache
-    final private Map<PsiSig, IReusableIt<DeepType>> ctxToExprToResult = new HashMap<>();
+    final private Map<PsiSig, IReusableIt<DeepType>> ctxToExprToResult = new ConcurrentHashMap<>();
+    // fully resolved types shared with other searches
+    final private Opt<ProjectTypeCache> sharedCache;
+    // results that were not shared since some of their keys were not resolved yet
+    final private Map<PsiSig, S<Boolean>> pendingShares = new ConcurrentHashMap<>();
+    // types checked to be fully resolved, with count of their nested keys and values
+    final private Map<DeepType, Integer> resolvedSizes = new ConcurrentHashMap<>();
+    // code the cached types were taken from, passed to whoever takes them from cache
+    final private Map<PsiSig, Set<ProjectTypeCache.Dep>> sigToDeps = new ConcurrentHashMap<>();
+    // set when search was cut short, results resolved after that may be incomplete
+    private volatile boolean limitReached = false;
+    // [sig, thread] of expressions being resolved, an expression met again in same thread
+    // is a circular reference, other threads should not take it for an empty result
+    final private Set<List<Object>> resolving = ConcurrentHashMap.newKeySet();
+    // functions and docs being resolved in a probe context, see findSummarized()
+    final private Set<List<Object>> summarizing = ConcurrentHashMap.newKeySet();
+    // functions and docs which probe hit the search limit, so it's not known whether they use the context
+    final private Set<List<Object>> unsummarizable = ConcurrentHashMap.newKeySet();
+    // canonical instances of call contexts, so that equal ones shared arg cache
+    final private Map<FuncCtx, FuncCtx> internedFuncCtxs = new ConcurrentHashMap<>();
     // usage type cache
-    final public Map<PhpExpression, MemIt<DeepType>> exprToUsageResult = new HashMap<>();
+    final public Map<PhpExpression, MemIt<DeepType>> exprToUsageResult = new ConcurrentHashMap<>();
     public Opt<Integer> overrideMaxExpr = non();
-    final public Map<PsiFile, Collection<FieldReferenceImpl>> fileToFieldRefs = new HashMap<>();
     public Opt<MemIt<DeepType>> globalsVarType = non();
     public boolean isMain = false;
 
@@ -42,6 +82,16 @@ public class SearchCtx extends Lang
     public SearchCtx(Project project)
     {
         this.project = opt(project);
+        this.sharedCache = this.project.fop(ProjectTypeCache::inst);
+        this.parallel = this.project
+            .map(p -> DeepSettings.inst(p).parallelResolution)
+            .def(false);
+        this.wideningThreshold = this.project
+            .map(p -> DeepSettings.inst(p).typeWideningThreshold)
+            .def(100);
+        this.callStringDepth = this.project
+            .map(p -> DeepSettings.inst(p).callStringDepth)
+            .def(0);
     }
 
     public SearchCtx(CompletionParameters parameters)
@@ -67,6 +117,18 @@ public class SearchCtx extends Lang
         return this;
     }
 
+    public SearchCtx setProfile(boolean profile)
+    {
+        this.profile = profile;
+        return this;
+    }
+
+    /** whether ExprCtx-s should keep their children for printExprTree() or Profiler */
+    public boolean keepsExprTree()
+    {
+        return debug || profile;
+    }
+
     public Integer getMaxExpressions()
     {
         // max expressions per single search - guard
@@ -80,35 +142,161 @@ public class SearchCtx extends Lang
         ).def(10000);
     }
 
-    private static <T> boolean endsWith(L<T> superList, L<T> subList)
+    private int getDepthLeft(ExprCtx exprCtx)
     {
-        for (int i = 0; i < subList.size(); ++i) {
-            if (i >= superList.size() || !superList.get(-i - 1).equals(subList.get(-i - 1))) {
-                return false;
+        return maxDepth - exprCtx.depth;
+    }
+
+    private static void inheritDeps(ExprCtx ctx, Set<ProjectTypeCache.Dep> deps)
+    {
+        L<ProjectTypeCache.Dep> snapshot;
+        synchronized (deps) {
+            snapshot = L(deps);
+        }
+        snapshot.fch(dep -> ctx.addDep(dep));
+    }
+
+    private Opt<IReusableIt<DeepType>> takeFromCache(ExprCtx ctx, PhpExpression expr)
+    {
+        PsiSig sig = new PsiSig(expr, ctx);
+        Opt<IReusableIt<DeepType>> local = opt(ctxToExprToResult.get(sig));
+        if (local.has() || !shouldCache(ctx)) {
+            opt(sigToDeps.get(sig)).thn(deps -> inheritDeps(ctx, deps));
+            // keys of the result could have been resolved since it was put
+            opt(pendingShares.get(sig))
+                .flt(retry -> retry.get())
+                .thn(retry -> pendingShares.remove(sig));
+            return local;
+        }
+        Opt<ProjectTypeCache.Entry> shared = sharedCache
+            .fop(cache -> cache.get(sig, getDepthLeft(ctx)));
+        shared.thn(entry -> {
+            inheritDeps(ctx, entry.deps);
+            ctxToExprToResult.put(sig, entry.types);
+            sigToDeps.put(sig, entry.deps);
+        });
+        return shared.map(entry -> entry.types);
+    }
+
+    private static boolean isResolved(IReusableIt<?> tit)
+    {
+        return tit instanceof IResolvedIt
+            || tit instanceof MemIt && ((MemIt<?>)tit).isComplete();
+    }
+
+    /**
+     * count the type with all its nested keys and values, without resolving anything,
+     * so that sharing did not spend the budget of user's completion on keys nobody needs
+     * @return NOT_RESOLVED_YET if search did not resolve some keys or values yet,
+     *  NOT_SHAREABLE if type holds the context, like closures, or if it is too big
+     */
+    private int measureResolved(DeepType root)
+    {
+        Integer known = resolvedSizes.get(root);
+        if (known != null) {
+            return known;
+        }
+        Set<DeepType> visited = new HashSet<>();
+        L<DeepType> queue = list(root);
+        int size = 0;
+        while (queue.size() > 0) {
+            DeepType t = queue.remove(queue.size() - 1);
+            Integer nested = resolvedSizes.get(t);
+            if (!visited.add(t)) {
+                continue;
+            } else if (nested != null) {
+                // measured when it was shared as a result of a nested expression
+                size += nested;
+                continue;
+            } else if (t.returnTypeGetters.size() > 0 || t.ctorArgs.has()) {
+                return NOT_SHAREABLE;
+            } else if (!isResolved(t.keys) || !isResolved(t.props)) {
+                return NOT_RESOLVED_YET;
+            }
+            for (Key k: It.cnc(t.keys, t.props)) {
+                IReusableIt<DeepType> keyTypes = k.keyType.getTypes();
+                if (!isResolved(keyTypes)) {
+                    return NOT_RESOLVED_YET;
+                }
+                keyTypes.fch(queue::add);
+                for (Tls.IOnDemand<Mt> getter: k.valueTypeGetters) {
+                    Opt<Mt> valMt = getter.ifHas();
+                    if (!valMt.has() || !isResolved(valMt.unw().types)) {
+                        return NOT_RESOLVED_YET;
+                    }
+                    valMt.unw().types.fch(queue::add);
+                }
+            }
+            for (Mt mt: t.generics) {
+                if (!isResolved(mt.types)) {
+                    return NOT_RESOLVED_YET;
+                }
+                mt.types.fch(queue::add);
+            }
+            t.pdoFetchTypes.fch(queue::add);
+            if (++size > MAX_SHARED_TYPES) {
+                return NOT_SHAREABLE;
             }
         }
-        return true;
+        resolvedSizes.put(root, size);
+        return size;
     }
 
-    private static boolean isRecursion(L<PsiElement> psiTrace)
+    /**
+     * types are shared only once their lazy keys and values are resolved in this search,
+     * since otherwise other searches would resolve them through this one, with its time
+     * and expression budget, which is most likely spent by then
+     *
+     * @return false if types may be shared later, once search resolves the rest of their keys
+     */
+    private boolean share(PsiSig sig, L<DeepType> types, int depthLeft, Set<ProjectTypeCache.Dep> deps, long cyclesBefore)
     {
-        // imagine sequence: a b c d e f g e f g
-        //                           ^_____^_____
-        // I'm not sure this assumption is right, but I'll try to
-        // treat any case where end repeats pre-end as recursion
-        for (int i = 0; i < psiTrace.size() / 2; ++i) {
-            L<PsiElement> subList = psiTrace.sub(psiTrace.size() - i * 2 - 2, i + 1);
-            if (endsWith(psiTrace, subList)) {
+        if (limitReached || OwnedLock.getBrokenCycles() != cyclesBefore) {
+            return true;
+        }
+        int size = 0;
+        for (DeepType t: types) {
+            int measured = measureResolved(t);
+            if (measured == NOT_RESOLVED_YET) {
+                return false;
+            } else if (measured == NOT_SHAREABLE) {
+                return true;
+            }
+            size += measured;
+            if (size > MAX_SHARED_TYPES) {
                 return true;
             }
         }
-        return false;
+        sharedCache.unw().put(sig, types, size, depthLeft, deps);
+        return true;
     }
 
-    private Opt<IReusableIt<DeepType>> takeFromCache(IExprCtx ctx, PhpExpression expr)
+    private void shareOrPostpone(PsiSig sig, L<DeepType> types, int depthLeft, Set<ProjectTypeCache.Dep> deps, long cyclesBefore)
     {
+        if (!share(sig, types, depthLeft, deps, cyclesBefore)) {
+            pendingShares.put(sig, () -> share(sig, types, depthLeft, deps, cyclesBefore));
+        }
+    }
+
+    /** put result to project cache once it is completely iterated */
+    private IIt<DeepType> shareOnceResolved(ExprCtx ctx, PhpExpression expr, IIt<DeepType> tit)
+    {
+        if (!sharedCache.has() || !shouldCache(ctx)) {
+            return tit;
+        }
         PsiSig sig = new PsiSig(expr, ctx);
-        return opt(ctxToExprToResult.get(sig));
+        int depthLeft = getDepthLeft(ctx);
+        // types that missed something due to a broken wait between threads are not shared
+        long cyclesBefore = OwnedLock.getBrokenCycles();
+        if (tit instanceof IResolvedIt) {
+            L<DeepType> arr = tit.arr();
+            shareOrPostpone(sig, arr, depthLeft, ctx.getDeps(), cyclesBefore);
+            return arr;
+        }
+        L<DeepType> collected = list();
+        return tit.itr()
+            .btw(t -> collected.add(t))
+            .thn(cnt -> shareOrPostpone(sig, collected, depthLeft, ctx.getDeps(), cyclesBefore));
     }
 
     public static String formatPsi(PsiElement expr)
@@ -118,11 +306,13 @@ public class SearchCtx extends Lang
         return Tls.singleLine(expr.getText(), 120) + " - " + expr.getContainingFile().getName() + ":" + phpLineNum;
     }
 
-    private void putToCache(IExprCtx ctx, PhpExpression expr, IReusableIt<DeepType> result)
+    private void putToCache(ExprCtx ctx, PhpExpression expr, IReusableIt<DeepType> result)
     {
         PsiSig sig = new PsiSig(expr, ctx);
-        ctxToExprToResult.remove(sig);
         ctxToExprToResult.put(sig, result);
+        if (sharedCache.has()) {
+            sigToDeps.put(sig, ctx.getDeps());
+        }
     }
 
     private boolean shouldCache(ExprCtx exprCtx)
@@ -130,20 +320,23 @@ public class SearchCtx extends Lang
         return !exprCtx.doNotCache;
     }
 
-    private static L<PsiElement> getExprChain(ExprCtx ctx)
+    /**
+     * in a parallel search iterators may be passed between threads, so the ones
+     * created during resolution and during iteration of the result are thread-safe
+     */
+    public IIt<DeepType> findExprType(PhpExpression expr, ExprCtx exprCtx)
     {
-        L<PsiElement> fromEnd = list();
-        while (ctx != null) {
-            if (!fromEnd.lst().equals(som(ctx.expr))) {
-                fromEnd.add(ctx.expr);
-            }
-            ctx = ctx.parent.def(null);
+        if (!parallel) {
+            return resolveExprType(expr, exprCtx);
         }
-        return fromEnd.rvr();
+        IIt<DeepType> tit = MemIt.threadSafeIn(() -> resolveExprType(expr, exprCtx));
+        return tit instanceof IResolvedIt ? tit : MemIt.threadSafeIt(tit);
     }
 
-    public IIt<DeepType> findExprType(PhpExpression expr, ExprCtx exprCtx)
+    private IIt<DeepType> resolveExprType(PhpExpression expr, ExprCtx exprCtx)
     {
+        // throws if user typed on and completion is not needed anymore
+        ProgressManager.checkCanceled();
         currentExpr = som(exprCtx);
 
         long time = System.nanoTime();
@@ -156,41 +349,197 @@ public class SearchCtx extends Lang
         if (exprCtx.depth > maxDepth) {
             return non();
         }
-        L<PsiElement> chain = getExprChain(exprCtx);
-        if (++expressionsResolved > getMaxExpressions()) {
+        if (expressionsResolved.incrementAndGet() > getMaxExpressions()) {
+            limitReached = true;
             return non();
         } else if (timeout.flt(tout -> seconds > tout).has()) {
+            limitReached = true;
             return non();
         }
 
+        sharedCache.fop(cache -> cache.getDep(exprCtx.getRealPsi(expr), exprCtx.getParentScopeDep()))
+            .thn(dep -> exprCtx.setScopeDep(dep));
         Opt<IReusableIt<DeepType>> result = takeFromCache(exprCtx, expr);
+        if (profile) {
+            exprCtx.startNanos = System.nanoTime();
+            // replaced by the actual resolver name in DirectTypeResolver, if any
+            exprCtx.resolver = som("DirectTypeResolver");
+            exprCtx.isFromCache = result.has();
+        }
         if (result.has()) {
             if (debug) {
                 //System.out.println(indent + "<< TAKING RESULT FROM CACHE");
             }
-        } else if (isRecursion(chain)) {
+        } else if (exprCtx.isRecursion()) {
             return non();
         } else {
-            if (shouldCache(exprCtx)) {
-                putToCache(exprCtx, expr, list());
+            List<Object> resolvingKey = Arrays.asList(new PsiSig(expr, exprCtx), Thread.currentThread());
+            boolean isResolving = shouldCache(exprCtx) && !resolving.add(resolvingKey);
+            if (isResolving) {
+                // expression is resolved through itself
+                return non();
             }
-
-            IIt<DeepType> tit = new DirectTypeResolver(exprCtx).resolve(expr)
+            try {
+                IIt<DeepType> resolved = new DirectTypeResolver(exprCtx).resolve(expr);
                 //.lmt(1000) // .lmt() is just a safety measure, it should not be needed if everything works properly
-                .unq() // .unq() before caching is important since types taken from cache would grow in count exponentially otherwise
-                ;
-            IReusableIt<DeepType> mit = tit instanceof IResolvedIt ? tit.arr() : tit.mem();
-            result = som(mit);
-            if (shouldCache(exprCtx)) {
-                result.thn(mt -> putToCache(exprCtx, expr, mit));
+                IIt<DeepType> tit = resolved
+                    .unq(t -> t.getFingerprint()); // .unq() before caching is important since types taken from cache would grow in count exponentially otherwise
+                if (resolved instanceof IResolvedIt) {
+                    // keep it resolved, so that widening and sharing did not wrap it in lazy iterators
+                    tit = tit.arr();
+                }
+                tit = Mt.widen(tit, wideningThreshold);
+                tit = shareOnceResolved(exprCtx, expr, tit);
+                IReusableIt<DeepType> mit = tit instanceof IResolvedIt ? tit.arr() : tit.mem();
+                result = som(mit);
+                if (shouldCache(exprCtx)) {
+                    putToCache(exprCtx, expr, mit);
+                }
+            } finally {
+                if (shouldCache(exprCtx)) {
+                    resolving.remove(resolvingKey);
+                }
             }
         }
 
+        if (profile) {
+            return result.def(non()).itr()
+                .thn(cnt -> {
+                    exprCtx.endNanos = System.nanoTime();
+                    exprCtx.typeCnt = som(cnt);
+                });
+        }
         return result.def(non());
     }
 
+    /**
+     * resolve lazy keys and values of the types, since they may use the args too
+     * and they should not refer to this search once shared with other searches
+     * @return false if types hold the context, like closures, if there are too many
+     *  of them or if search limit was reached, so some of their values were cut short
+     */
+    private boolean materialize(L<DeepType> types, int maxTypes)
+    {
+        Set<DeepType> visited = new HashSet<>();
+        L<DeepType> queue = L(types);
+        while (queue.size() > 0) {
+            DeepType t = queue.remove(queue.size() - 1);
+            if (!visited.add(t)) {
+                continue;
+            } else if (visited.size() > maxTypes ||
+                t.returnTypeGetters.size() > 0 ||
+                t.ctorArgs.has()
+            ) {
+                return false;
+            }
+            It.cnc(t.keys, t.props).fch(k -> {
+                k.keyType.getTypes().fch(kt -> queue.add(kt));
+                k.getValueTypes().fch(vt -> queue.add(vt));
+            });
+            t.generics.fch(mt -> mt.types.fch(gt -> queue.add(gt)));
+            t.pdoFetchTypes.fch(pt -> queue.add(pt));
+            if (limitReached) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private It<DeepType> summarize(PsiElement source, String kind, ExprCtx callCtx, F<IExprCtx, It<DeepType>> resolve)
+    {
+        ProjectTypeCache cache = sharedCache.unw();
+        int depthLeft = getDepthLeft(callCtx);
+        List<Object> key = Arrays.asList(source, kind);
+        Opt<ProjectTypeCache.Summary> known = cache.getSummary(source, kind, depthLeft);
+        if (known.has()) {
+            inheritDeps(callCtx, known.unw().deps);
+            return known.unw().isCtxFree
+                ? known.unw().types.itr()
+                : resolve.apply(callCtx);
+        } else if (unsummarizable.contains(key)) {
+            return resolve.apply(callCtx);
+        } else if (!summarizing.add(key)) {
+            // function calls itself or is being summarized by other thread
+            return resolve.apply(callCtx);
+        }
+        try {
+            long cyclesBefore = OwnedLock.getBrokenCycles();
+            ExprCtx probeCtx = callCtx.subCtxProbe();
+            L<DeepType> types = resolve.apply(probeCtx).arr();
+            // keys are not resolved if we already know that the types depend on args
+            int maxTypes = source instanceof Function ? MAX_SHARED_TYPES : MAX_SUMMARY_DOC_TYPES;
+            boolean isCtxFree = !probeCtx.wasFuncCtxRead()
+                && materialize(types, maxTypes)
+                && !probeCtx.wasFuncCtxRead();
+            // using the context or having too many types does not depend on limits, so
+            // it's remembered for any depth, but otherwise we can't tell if limit was hit
+            boolean isKnown = probeCtx.wasFuncCtxRead() || !limitReached;
+            if (isKnown && OwnedLock.getBrokenCycles() == cyclesBefore) {
+                int validForDepth = isCtxFree ? depthLeft : Integer.MAX_VALUE;
+                cache.putSummary(source, kind, isCtxFree ? types : list(), isCtxFree, validForDepth, probeCtx.getDeps());
+            } else {
+                unsummarizable.add(key);
+            }
+            // probe has same args as the call, so its types are correct either way
+            return types.itr();
+        } finally {
+            summarizing.remove(key);
+        }
+    }
+
+    /**
+     * many functions do not use args or $this, so their return type is same for
+     * every call - it is resolved once in a probe context that remembers whether
+     * args were accessed and shared with all callers through project cache
+     *
+     * functions that use the context or return too big structures are remembered as
+     * such and resolved in each call context as before, without probing them again
+     *
+     * same goes for phpdoc types - most of them do not refer to $this, static or generics,
+     * but only small ones are summarized, since summary resolves all their keys at once
+     *
+     * @param kind - what is resolved from the source, as same doc may give different types
+     */
+    public It<DeepType> findSummarized(PsiElement source, String kind, ExprCtx callCtx, F<IExprCtx, It<DeepType>> resolve)
+    {
+        if (!sharedCache.has() || !shouldCache(callCtx)) {
+            return resolve.apply(callCtx);
+        }
+        return It(() -> summarize(source, kind, callCtx, resolve).iterator());
+    }
+
+    /** @return the instance equal to passed context, if any was created in this search before */
+    public synchronized FuncCtx intern(FuncCtx ctx)
+    {
+        FuncCtx canonical = internedFuncCtxs.get(ctx);
+        if (canonical == null) {
+            ctx.markInterned();
+            internedFuncCtxs.put(ctx, ctx);
+            canonical = ctx;
+        }
+        return canonical;
+    }
+
     public int getExpressionsResolved()
     {
-        return this.expressionsResolved;
+        return this.expressionsResolved.get();
+    }
+
+    /** whether independent branches should be resolved in separate threads */
+    public boolean isParallel()
+    {
+        return this.parallel;
+    }
+
+    /** how many of the nested call sites are compared in call contexts, see FuncCtx::equals() */
+    public int getCallStringDepth()
+    {
+        return this.callStringDepth;
+    }
+
+    /** whether expression limit or timeout was reached, so some of resolved types were skipped */
+    public boolean isLimitReached()
+    {
+        return this.limitReached;
     }
 }
@@ -22,11 +22,17 @@ public class DeepSettings implements PersistentStateComponent<DeepSettings> {
     public Integer explicitDepthLimit = 55;
     public Integer implicitDepthLimit = 30;
     public Integer totalExpressionLimit = 7500;
+    public Integer explicitTimeBudget = 15000; // milliseconds
+    public Integer implicitTimeBudget = 2000; // milliseconds
+    public Integer typeWideningThreshold = 100;
+    public Integer callStringDepth = 0; // 0 - unlimited
     public Integer usageBasedCompletionDepthLimit = 3;
     public Boolean removeUnusedImportsOnSaveEnabled = false;
     public Boolean passArgsToImplementations = false;
     public Boolean enableMemberCompletion = true;
     public Boolean adjustOtherPluginOptions = true;
+    public Boolean parallelResolution = false;
+    public Boolean prewarmEnabled = false;
 
     public static DeepSettings inst(Project project) {
         return Opt.fst(
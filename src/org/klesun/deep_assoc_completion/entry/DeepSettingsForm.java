@@ -24,9 +24,15 @@ public class DeepSettingsForm implements Configurable
     private JCheckBox removeUnusedImportsOnSaveEnabled;
     private JFormattedTextField totalExpressionLimit;
     private JFormattedTextField usageBasedCompletionDepthLimit;
+    private JFormattedTextField explicitTimeBudget;
+    private JFormattedTextField implicitTimeBudget;
+    private JFormattedTextField typeWideningThreshold;
+    private JFormattedTextField callStringDepth;
     private JCheckBox passArgsToImplementations;
     private JCheckBox enableMemberCompletion;
     private JCheckBox adjustOtherPluginOptions;
+    private JCheckBox parallelResolution;
+    private JCheckBox prewarmEnabled;
 
     @Nls
     @Override
@@ -55,10 +61,16 @@ public class DeepSettingsForm implements Configurable
             || !getSettings().passArgsToImplementations == passArgsToImplementations.isSelected()
             || !getSettings().enableMemberCompletion == enableMemberCompletion.isSelected()
             || !getSettings().adjustOtherPluginOptions == adjustOtherPluginOptions.isSelected()
+            || !getSettings().parallelResolution == parallelResolution.isSelected()
+            || !getSettings().prewarmEnabled == prewarmEnabled.isSelected()
             || !getSettings().explicitDepthLimit.toString().equals(explicitDepthLimit.getText())
             || !getSettings().implicitDepthLimit.toString().equals(implicitDepthLimit.getText())
             || !getSettings().totalExpressionLimit.toString().equals(totalExpressionLimit.getText())
             || !getSettings().usageBasedCompletionDepthLimit.toString().equals(usageBasedCompletionDepthLimit.getText())
+            || !getSettings().explicitTimeBudget.toString().equals(explicitTimeBudget.getText())
+            || !getSettings().implicitTimeBudget.toString().equals(implicitTimeBudget.getText())
+            || !getSettings().typeWideningThreshold.toString().equals(typeWideningThreshold.getText())
+            || !getSettings().callStringDepth.toString().equals(callStringDepth.getText())
             ;
     }
 
@@ -84,10 +96,17 @@ public class DeepSettingsForm implements Configurable
         getSettings().passArgsToImplementations = passArgsToImplementations.isSelected();
         getSettings().enableMemberCompletion = enableMemberCompletion.isSelected();
         getSettings().adjustOtherPluginOptions = adjustOtherPluginOptions.isSelected();
+        getSettings().parallelResolution = parallelResolution.isSelected();
+        getSettings().prewarmEnabled = prewarmEnabled.isSelected();
+        TypePrewarmer.inst(project).thn(prewarmer -> prewarmer.updateListener());
         getSettings().explicitDepthLimit = validateInt(explicitDepthLimit, 0, 100);
         getSettings().implicitDepthLimit = validateInt(implicitDepthLimit, 0, 100);
         getSettings().totalExpressionLimit = validateInt(totalExpressionLimit, 0, 1000000);
         getSettings().usageBasedCompletionDepthLimit = validateInt(usageBasedCompletionDepthLimit, 0, 100);
+        getSettings().explicitTimeBudget = validateInt(explicitTimeBudget, 0, 600000);
+        getSettings().implicitTimeBudget = validateInt(implicitTimeBudget, 0, 600000);
+        getSettings().typeWideningThreshold = validateInt(typeWideningThreshold, 0, 100000);
+        getSettings().callStringDepth = validateInt(callStringDepth, 0, 100);
     }
 
     @Override
@@ -96,10 +115,16 @@ public class DeepSettingsForm implements Configurable
         passArgsToImplementations.setSelected(getSettings().passArgsToImplementations);
         enableMemberCompletion.setSelected(getSettings().enableMemberCompletion);
         adjustOtherPluginOptions.setSelected(getSettings().adjustOtherPluginOptions);
+        parallelResolution.setSelected(getSettings().parallelResolution);
+        prewarmEnabled.setSelected(getSettings().prewarmEnabled);
         explicitDepthLimit.setText(getSettings().explicitDepthLimit.toString());
         implicitDepthLimit.setText(getSettings().implicitDepthLimit.toString());
         totalExpressionLimit.setText(getSettings().totalExpressionLimit.toString());
         usageBasedCompletionDepthLimit.setText(getSettings().usageBasedCompletionDepthLimit.toString());
+        explicitTimeBudget.setText(getSettings().explicitTimeBudget.toString());
+        implicitTimeBudget.setText(getSettings().implicitTimeBudget.toString());
+        typeWideningThreshold.setText(getSettings().typeWideningThreshold.toString());
+        callStringDepth.setText(getSettings().callStringDepth.toString());
     }
 
     public void disposeUIResources() {
@@ -93,6 +93,12 @@ public class DirectTypeCompletionContributor extends CompletionContributor
         );
     }
 
+    @Override
+    public void fillCompletionVariants(@NotNull CompletionParameters parameters, @NotNull CompletionResultSet result) {
+        TypePrewarmer.yieldTo(parameters.getPosition().getProject());
+        super.fillCompletionVariants(parameters, result);
+    }
+
     /**
      * Allow autoPopup to appear after custom symbol
      */
@@ -0,0 +1,268 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.*;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.deep_assoc_completion.resolvers.FuncCallRes;
+import org.klesun.deep_assoc_completion.resolvers.UsageBasedTypeResolver;
+import org.klesun.lang.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * function FQN -> for each parameter: literal keys accessed on it, like `$params['id']`,
+ * and plain function calls it is passed to, so that usage-based completion could
+ * follow the chain of functions without walking through their bodies
+ *
+ * if parameter is used any other way, it is marked as incomplete, and
+ * usage-based resolution falls back to the tree walk for it
+ */
+public class ParamUsageIndex extends FileBasedIndexExtension<String, L<ParamUsageIndex.ParamRec>>
+{
+    final public static ID<String, L<ParamRec>> NAME = ID.create("org.klesun.deep_assoc_completion.ParamUsageIndex");
+
+    /** `func($param)` */
+    public static class Forward
+    {
+        final public String funcFqn;
+        // unqualified call in a namespace falls back to the global function
+        final public Opt<String> globalFqn;
+        final public int argOrder;
+
+        Forward(String funcFqn, Opt<String> globalFqn, int argOrder)
+        {
+            this.funcFqn = funcFqn;
+            this.globalFqn = globalFqn;
+            this.argOrder = argOrder;
+        }
+
+        public boolean equals(Object thatRaw)
+        {
+            if (!(thatRaw instanceof Forward)) {
+                return false;
+            }
+            Forward that = (Forward)thatRaw;
+            return this.funcFqn.equals(that.funcFqn)
+                && this.globalFqn.def("").equals(that.globalFqn.def(""))
+                && this.argOrder == that.argOrder;
+        }
+
+        public int hashCode()
+        {
+            return Objects.hash(funcFqn, globalFqn.def(""), argOrder);
+        }
+    }
+
+    public static class ParamRec
+    {
+        final public boolean isComplete;
+        final public L<String> keys;
+        final public L<Forward> forwards;
+
+        ParamRec(boolean isComplete, L<String> keys, L<Forward> forwards)
+        {
+            this.isComplete = isComplete;
+            this.keys = keys;
+            this.forwards = forwards;
+        }
+
+        public boolean equals(Object thatRaw)
+        {
+            if (!(thatRaw instanceof ParamRec)) {
+                return false;
+            }
+            ParamRec that = (ParamRec)thatRaw;
+            return this.isComplete == that.isComplete
+                && this.keys.equals(that.keys)
+                && this.forwards.equals(that.forwards);
+        }
+
+        public int hashCode()
+        {
+            return Objects.hash(isComplete, keys, forwards);
+        }
+    }
+
+    /** @return non() if usage can not be described without resolution */
+    private static Opt<Forward> getForward(Variable ref)
+    {
+        return opt(ref.getParent())
+            .cst(ParameterList.class)
+            .fop(argList -> opt(argList.getParent())
+                .cst(FunctionReference.class)
+                .flt(call -> !(call instanceof MethodReference))
+                .flt(call -> !UsageBasedTypeResolver.ARG_LIST_FUNCS.contains(call.getName()))
+                .fop(call -> opt(call.getFQN()).map(fqn -> {
+                    Opt<String> globalFqn = opt(call.getName())
+                        .flt(name -> "".equals(call.getImmediateNamespaceName()))
+                        .map(name -> "\\" + name)
+                        .flt(global -> !global.equals(fqn));
+                    return new Forward(fqn, globalFqn, L(argList.getParameters()).indexOf(ref));
+                })));
+    }
+
+    /** @return non() if key is not a string literal, like `$params[$key]` */
+    private static Opt<String> getAccessedKey(Variable ref)
+    {
+        return opt(ref.getParent())
+            .cst(ArrayAccessExpression.class)
+            .flt(acc -> ref.equals(acc.getValue()))
+            .fop(acc -> opt(acc.getIndex()))
+            .fop(idx -> opt(idx.getValue()))
+            .cst(StringLiteralExpression.class)
+            .map(lit -> lit.getContents());
+    }
+
+    private static ParamRec makeParamRec(Function func, Parameter param)
+    {
+        if (!(func.getLastChild() instanceof GroupStatement)) {
+            // abstract or interface method, usages are in the implementations
+            return new ParamRec(false, list(), list());
+        }
+        boolean isComplete = true;
+        L<String> keys = list();
+        L<Forward> forwards = list();
+        L<Variable> refs = opt(func.getLastChild())
+            .fap(body -> FuncCallRes.findUsedVars(body))
+            .flt(ref -> param.getName().equals(ref.getName()))
+            .arr();
+        for (Variable ref: refs) {
+            Opt<String> keyOpt = getAccessedKey(ref);
+            Opt<Forward> forwardOpt = getForward(ref);
+            if (keyOpt.has()) {
+                if (!keys.contains(keyOpt.unw())) {
+                    keys.add(keyOpt.unw());
+                }
+            } else if (forwardOpt.has()) {
+                if (!forwards.contains(forwardOpt.unw())) {
+                    forwards.add(forwardOpt.unw());
+                }
+            } else {
+                isComplete = false;
+            }
+        }
+        return new ParamRec(isComplete, keys, forwards);
+    }
+
+    @NotNull
+    @Override
+    public ID<String, L<ParamRec>> getName()
+    {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, L<ParamRec>, FileContent> getIndexer()
+    {
+        return inputData -> {
+            Map<String, L<ParamRec>> result = new HashMap<>();
+            for (Function func: PsiTreeUtil.findChildrenOfType(inputData.getPsiFile(), Function.class)) {
+                if (func.isClosure() || func.getParameters().length == 0) {
+                    continue;
+                }
+                L<ParamRec> params = L(func.getParameters())
+                    .map(param -> makeParamRec(func, param)).arr();
+                result.put(func.getFQN(), params);
+            }
+            return result;
+        };
+    }
+
+    @NotNull
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor()
+    {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<L<ParamRec>> getValueExternalizer()
+    {
+        return new DataExternalizer<L<ParamRec>>() {
+            public void save(@NotNull DataOutput out, L<ParamRec> value) throws IOException {
+                out.writeInt(value.size());
+                for (ParamRec rec: value) {
+                    out.writeBoolean(rec.isComplete);
+                    out.writeInt(rec.keys.size());
+                    for (String key: rec.keys) {
+                        out.writeUTF(key);
+                    }
+                    out.writeInt(rec.forwards.size());
+                    for (Forward fwd: rec.forwards) {
+                        out.writeUTF(fwd.funcFqn);
+                        out.writeUTF(fwd.globalFqn.def(""));
+                        out.writeInt(fwd.argOrder);
+                    }
+                }
+            }
+            public L<ParamRec> read(@NotNull DataInput in) throws IOException {
+                int size = in.readInt();
+                L<ParamRec> value = list();
+                for (int i = 0; i < size; ++i) {
+                    boolean isComplete = in.readBoolean();
+                    L<String> keys = list();
+                    for (int keyCnt = in.readInt(); keyCnt > 0; --keyCnt) {
+                        keys.add(in.readUTF());
+                    }
+                    L<Forward> forwards = list();
+                    for (int fwdCnt = in.readInt(); fwdCnt > 0; --fwdCnt) {
+                        String funcFqn = in.readUTF();
+                        Opt<String> globalFqn = opt(in.readUTF()).flt(fqn -> !fqn.isEmpty());
+                        forwards.add(new Forward(funcFqn, globalFqn, in.readInt()));
+                    }
+                    value.add(new ParamRec(isComplete, keys, forwards));
+                }
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return 2;
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter()
+    {
+        return new DefaultFileTypeSpecificInputFilter(PhpFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent()
+    {
+        return true;
+    }
+
+    /** @return non() if parameter is used in a way not described by index or index is not ready */
+    public static Opt<ParamRec> get(Function func, int argOrder)
+    {
+        VirtualFile file = func.getContainingFile().getVirtualFile();
+        if (file == null || DumbService.isDumb(func.getProject())) {
+            return non();
+        }
+        GlobalSearchScope scope = GlobalSearchScope.fileScope(func.getProject(), file);
+        return It(FileBasedIndex.getInstance().getValues(NAME, func.getFQN(), scope)).fst()
+            .fop(params -> params.gat(argOrder))
+            .flt(rec -> rec.isComplete);
+    }
+}
@@ -0,0 +1,97 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.LangDataKeys;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.impl.source.tree.LeafPsiElement;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.deep_assoc_completion.completion_providers.AssocKeyPvdr;
+import org.klesun.deep_assoc_completion.contexts.ExprCtx;
+import org.klesun.deep_assoc_completion.contexts.FuncCtx;
+import org.klesun.deep_assoc_completion.contexts.Profiler;
+import org.klesun.deep_assoc_completion.contexts.SearchCtx;
+import org.klesun.deep_assoc_completion.structures.DeepType;
+import org.klesun.lang.Opt;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * resolves expression at caret with profiling and writes the expression tree to
+ * a chrome trace JSON (chrome://tracing, ui.perfetto.dev) and collapsed stacks
+ * file (flamegraph.pl, speedscope), to see which expressions make completion slow
+ *
+ * resolution runs in background with a cancellable progress, since it may take long
+ */
+public class ProfileResolution extends AnAction
+{
+    private static Profiler profile(PhpExpression expr)
+    {
+        SearchCtx search = new SearchCtx(expr.getProject())
+            .setDepth(AssocKeyPvdr.getMaxDepth(false, expr.getProject()))
+            .setTimeout(AssocKeyPvdr.getTimeout(false, expr.getProject()))
+            .setProfile(true);
+        ExprCtx exprCtx = new ExprCtx(new FuncCtx(search), expr, 0);
+        // var export iterates through all keys, same as the completion would
+        DeepType.varExport(exprCtx.findExprType(expr).arr());
+        return new Profiler(exprCtx);
+    }
+
+    private static String writeFiles(Profiler profiler) throws IOException
+    {
+        File dir = new File(FileUtil.getTempDirectory(), "deep-assoc-profile");
+        FileUtil.createDirectory(dir);
+        File traceFile = new File(dir, "trace.json");
+        File stacksFile = new File(dir, "stacks.folded");
+        FileUtil.writeToFile(traceFile, profiler.toChromeTrace());
+        FileUtil.writeToFile(stacksFile, profiler.toCollapsedStacks());
+        return "Chrome trace: " + traceFile.getPath() + "\n"
+            + "Collapsed stacks: " + stacksFile.getPath();
+    }
+
+    public void actionPerformed(AnActionEvent e)
+    {
+        Opt<PhpExpression> exprOpt = opt(e.getData(LangDataKeys.PSI_FILE))
+            .fop(psiFile -> opt(e.getData(LangDataKeys.CARET))
+                .map(caret -> psiFile.findElementAt(caret.getOffset())))
+            .map(psi -> psi instanceof LeafPsiElement ? psi.getParent() : psi)
+            .fop(toCast(PhpExpression.class));
+        if (!exprOpt.has()) {
+            Messages.showWarningDialog(e.getProject(), "Put caret on a PHP expression to profile its resolution", "deep-assoc-completion");
+            return;
+        }
+        Project project = e.getProject();
+        PhpExpression expr = exprOpt.unw();
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Profiling type resolution", true) {
+            private String msg = "";
+            private Opt<IOException> error = non();
+
+            public void run(@NotNull ProgressIndicator indicator) {
+                try {
+                    // profiler takes text and line numbers from the PSI
+                    msg = ReadAction.compute(() -> writeFiles(profile(expr)));
+                } catch (IOException exc) {
+                    error = som(exc);
+                }
+            }
+
+            public void onSuccess() {
+                if (error.has()) {
+                    Messages.showErrorDialog(project, "Failed to write profile - " + error.unw().getMessage(), "deep-assoc-completion");
+                } else {
+                    Messages.showInfoMessage(project, msg, "deep-assoc-completion profile");
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,232 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.*;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import com.jetbrains.php.lang.PhpFileType;
+import com.jetbrains.php.lang.psi.elements.*;
+import com.jetbrains.php.lang.psi.elements.impl.PhpExpressionImpl;
+import com.jetbrains.php.lang.psi.elements.impl.PhpReturnImpl;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.deep_assoc_completion.resolvers.ClosRes;
+import org.klesun.lang.*;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * function FQN -> keys of the array literals it returns, for functions that
+ * return nothing but `return ['a' => ..., 'b' => ...]`, so that completion
+ * of their keys did not require parsing the file they are defined in
+ *
+ * scalar literal values are stored as well, other values are resolved from
+ * the function body only when they are needed
+ */
+public class ReturnShapeIndex extends FileBasedIndexExtension<String, L<ReturnShapeIndex.KeyRec>>
+{
+    final public static ID<String, L<KeyRec>> NAME = ID.create("org.klesun.deep_assoc_completion.ReturnShapeIndex");
+
+    /** one key of one of returned arrays */
+    public static class KeyRec
+    {
+        // order of the `return` in the function, keys of each return form a separate type
+        final public int returnOrder;
+        final public String name;
+        // 's' - string, 'i' - int, 'f' - float, ' ' - anything else
+        final public char valueKind;
+        final public String value;
+
+        KeyRec(int returnOrder, String name, char valueKind, String value)
+        {
+            this.returnOrder = returnOrder;
+            this.name = name;
+            this.valueKind = valueKind;
+            this.value = value;
+        }
+
+        public boolean isSimple()
+        {
+            return valueKind != ' ';
+        }
+
+        public boolean equals(Object thatRaw)
+        {
+            if (!(thatRaw instanceof KeyRec)) {
+                return false;
+            }
+            KeyRec that = (KeyRec)thatRaw;
+            return this.returnOrder == that.returnOrder
+                && this.name.equals(that.name)
+                && this.valueKind == that.valueKind
+                && this.value.equals(that.value);
+        }
+
+        public int hashCode()
+        {
+            return Objects.hash(returnOrder, name, valueKind, value);
+        }
+    }
+
+    private static Opt<String> getLiteralKey(PsiElement keyPsi)
+    {
+        return Opt.fst(
+            () -> Tls.cast(StringLiteralExpression.class, keyPsi)
+                .map(lit -> lit.getContents()),
+            () -> Tls.cast(PhpExpressionImpl.class, keyPsi)
+                .map(num -> num.getText())
+                .flt(text -> Tls.regex("^\\d+$", text).has())
+        );
+    }
+
+    private static KeyRec makeKeyRec(int returnOrder, String name, PsiElement valuePsi)
+    {
+        String text = opt(valuePsi).map(v -> v.getText()).def("");
+        if (valuePsi instanceof StringLiteralExpression) {
+            return new KeyRec(returnOrder, name, 's', ((StringLiteralExpression)valuePsi).getContents());
+        } else if (valuePsi instanceof PhpExpressionImpl && Tls.regex("^\\d+$", text).has()) {
+            return new KeyRec(returnOrder, name, 'i', text);
+        } else if (valuePsi instanceof PhpExpressionImpl && Tls.regex("^\\d+\\.\\d+$", text).has()) {
+            return new KeyRec(returnOrder, name, 'f', text);
+        } else {
+            return new KeyRec(returnOrder, name, ' ', "");
+        }
+    }
+
+    /** @return non() if array has spread or keys that can not be known without resolution */
+    private static Opt<L<KeyRec>> getLiteralKeys(int returnOrder, ArrayCreationExpression arr)
+    {
+        L<KeyRec> keys = list();
+        for (PsiElement child: arr.getChildren()) {
+            if (!(child instanceof ArrayHashElement)) {
+                return non();
+            }
+            ArrayHashElement hashEl = (ArrayHashElement)child;
+            Opt<String> nameOpt = opt(hashEl.getKey()).fop(k -> getLiteralKey(k));
+            if (!nameOpt.has()) {
+                return non();
+            }
+            keys.add(makeKeyRec(returnOrder, nameOpt.unw(), hashEl.getValue()));
+        }
+        return som(keys);
+    }
+
+    /** @return non() if some of the returns is not an array literal */
+    private static Opt<L<KeyRec>> getReturnShape(Function func)
+    {
+        L<PhpReturnImpl> returns = ClosRes.findFunctionReturns(func);
+        boolean hasYields = L(PsiTreeUtil.findChildrenOfType(func, PhpYield.class))
+            .any(yld -> PsiTreeUtil.getParentOfType(yld, Function.class) == func);
+        if (!returns.has() || hasYields) {
+            return non();
+        }
+        L<KeyRec> keys = list();
+        for (int i = 0; i < returns.size(); ++i) {
+            int returnOrder = i;
+            Opt<L<KeyRec>> retKeys = opt(returns.get(i).getArgument())
+                .fop(toCast(ArrayCreationExpression.class))
+                .fop(arr -> getLiteralKeys(returnOrder, arr));
+            if (!retKeys.has()) {
+                return non();
+            }
+            keys.addAll(retKeys.unw());
+        }
+        return som(keys);
+    }
+
+    @NotNull
+    @Override
+    public ID<String, L<KeyRec>> getName()
+    {
+        return NAME;
+    }
+
+    @NotNull
+    @Override
+    public DataIndexer<String, L<KeyRec>, FileContent> getIndexer()
+    {
+        return inputData -> {
+            Map<String, L<KeyRec>> result = new HashMap<>();
+            for (Function func: PsiTreeUtil.findChildrenOfType(inputData.getPsiFile(), Function.class)) {
+                if (func.isClosure()) {
+                    continue;
+                }
+                getReturnShape(func).thn(shape -> result.put(func.getFQN(), shape));
+            }
+            return result;
+        };
+    }
+
+    @NotNull
+    @Override
+    public KeyDescriptor<String> getKeyDescriptor()
+    {
+        return EnumeratorStringDescriptor.INSTANCE;
+    }
+
+    @NotNull
+    @Override
+    public DataExternalizer<L<KeyRec>> getValueExternalizer()
+    {
+        return new DataExternalizer<L<KeyRec>>() {
+            public void save(@NotNull DataOutput out, L<KeyRec> value) throws IOException {
+                out.writeInt(value.size());
+                for (KeyRec rec: value) {
+                    out.writeInt(rec.returnOrder);
+                    out.writeUTF(rec.name);
+                    out.writeChar(rec.valueKind);
+                    out.writeUTF(rec.value);
+                }
+            }
+            public L<KeyRec> read(@NotNull DataInput in) throws IOException {
+                int size = in.readInt();
+                L<KeyRec> value = list();
+                for (int i = 0; i < size; ++i) {
+                    value.add(new KeyRec(in.readInt(), in.readUTF(), in.readChar(), in.readUTF()));
+                }
+                return value;
+            }
+        };
+    }
+
+    @Override
+    public int getVersion()
+    {
+        return 2;
+    }
+
+    @NotNull
+    @Override
+    public FileBasedIndex.InputFilter getInputFilter()
+    {
+        return new DefaultFileTypeSpecificInputFilter(PhpFileType.INSTANCE);
+    }
+
+    @Override
+    public boolean dependsOnFileContent()
+    {
+        return true;
+    }
+
+    /** @return non() if function returns something other than literal arrays or index is not ready */
+    public static Opt<L<KeyRec>> get(Function func)
+    {
+        VirtualFile file = func.getContainingFile().getVirtualFile();
+        if (file == null || DumbService.isDumb(func.getProject())) {
+            return non();
+        }
+        GlobalSearchScope scope = GlobalSearchScope.fileScope(func.getProject(), file);
+        return It(FileBasedIndex.getInstance().getValues(NAME, func.getFQN(), scope)).fst();
+    }
+}
@@ -21,6 +21,8 @@ import org.klesun.deep_assoc_completion.resolvers.ClosRes;
 import org.klesun.deep_assoc_completion.resolvers.UsageBasedTypeResolver;
 import org.klesun.deep_assoc_completion.structures.DeepType;
 import org.klesun.deep_assoc_completion.structures.Key;
+import org.klesun.deep_assoc_completion.structures.psalm.PsalmTypeExprParserTest;
+import org.klesun.deep_assoc_completion.structures.sql.SqlSelectParserTest;
 import org.klesun.lang.*;
 import org.klesun.lang.testing.CaseContext;
 import org.klesun.lang.testing.Error;
@@ -178,7 +180,13 @@ public class RunTest extends AnAction
                     }
                 }));
 
-            return It.cnc(usageErrors, errors, exactKeyErrors);
+            // parsers do not need PHP code of the project
+            It<Error> parserErrors = It.cnc(
+                PsalmTypeExprParserTest.run(logger),
+                SqlSelectParserTest.run(logger)
+            );
+
+            return It.cnc(usageErrors, errors, exactKeyErrors, parserErrors);
         });
     }
 }
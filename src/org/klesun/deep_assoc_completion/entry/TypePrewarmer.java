@@ -0,0 +1,230 @@
+package org.klesun.deep_assoc_completion.entry;
+
+import com.intellij.ide.IdeEventQueue;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorBase;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.progress.util.ReadTask;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.jetbrains.php.lang.psi.PhpFile;
+import com.jetbrains.php.lang.psi.elements.MethodReference;
+import com.jetbrains.php.lang.psi.elements.PhpExpression;
+import com.jetbrains.php.lang.psi.elements.Variable;
+import org.jetbrains.annotations.NotNull;
+import org.klesun.deep_assoc_completion.completion_providers.AssocKeyPvdr;
+import org.klesun.deep_assoc_completion.contexts.ExprCtx;
+import org.klesun.deep_assoc_completion.contexts.FuncCtx;
+import org.klesun.deep_assoc_completion.contexts.SearchCtx;
+import org.klesun.lang.L;
+import org.klesun.lang.Opt;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * resolves types of vars and method calls visible in the editor while user
+ * is not typing, so that they were taken from project cache on completion
+ *
+ * nested keys are resolved here as well, since only completely resolved types are shared
+ */
+public class TypePrewarmer implements Disposable
+{
+    final private static int IDLE_MS = 1500;
+    // do not start again right after a completion, user is likely to continue typing
+    final private static long YIELD_MS = 3000;
+    // guard against huge generated files
+    final private static int MAX_EXPRESSIONS = 300;
+
+    final private Project project;
+    final private Runnable onIdle = this::schedule;
+    private boolean isListening = false;
+    private Opt<ProgressIndicator> running = non();
+    private long yieldedAt = 0;
+    // to not resolve same range of same file version again and again
+    private String lastDoneKey = "";
+
+    public TypePrewarmer(Project project)
+    {
+        this.project = project;
+        updateListener();
+    }
+
+    /** idle listener is kept only while pre-warming is enabled, should be called when setting changes */
+    public synchronized void updateListener()
+    {
+        boolean enabled = DeepSettings.inst(project).prewarmEnabled;
+        if (enabled && !isListening) {
+            IdeEventQueue.getInstance().addIdleListener(onIdle, IDLE_MS);
+            isListening = true;
+        } else if (!enabled && isListening) {
+            IdeEventQueue.getInstance().removeIdleListener(onIdle);
+            isListening = false;
+            cancel();
+        }
+    }
+
+    public static Opt<TypePrewarmer> inst(Project project)
+    {
+        return opt(ServiceManager.getService(project, TypePrewarmer.class));
+    }
+
+    /** stop pre-warming, if any, to give CPU to the completion user is waiting for */
+    public static void yieldTo(Project project)
+    {
+        if (project != null) {
+            opt(project.getServiceIfCreated(TypePrewarmer.class))
+                .thn(prewarmer -> prewarmer.cancel());
+        }
+    }
+
+    private synchronized void cancel()
+    {
+        yieldedAt = System.currentTimeMillis();
+        running.thn(ind -> ind.cancel());
+        running = non();
+    }
+
+    private static Opt<TextRange> getVisibleRange(Editor editor, Rectangle area)
+    {
+        if (area.height <= 0) {
+            return non();
+        }
+        int start = editor.logicalPositionToOffset(editor.xyToLogicalPosition(area.getLocation()));
+        int end = editor.logicalPositionToOffset(editor.xyToLogicalPosition(
+            new Point(area.x + area.width, area.y + area.height)
+        ));
+        return som(new TextRange(start, Math.max(start, end)));
+    }
+
+    /**
+     * should be called from EDT, only takes the editor here,
+     * file and visible range are taken in the read action
+     */
+    public synchronized void schedule()
+    {
+        if (project.isDisposed() ||
+            !DeepSettings.inst(project).prewarmEnabled ||
+            DumbService.isDumb(project) ||
+            running.has() ||
+            System.currentTimeMillis() - yieldedAt < YIELD_MS
+        ) {
+            return;
+        }
+        Editor editor = FileEditorManager.getInstance(project).getSelectedTextEditor();
+        if (editor == null) {
+            return;
+        }
+        Rectangle area = editor.getScrollingModel().getVisibleArea();
+        ProgressIndicator indicator = new ProgressIndicatorBase();
+        running = som(indicator);
+        ProgressIndicatorUtils.scheduleWithWriteActionPriority(indicator, new ReadTask() {
+            public void computeInReadAction(@NotNull ProgressIndicator ind) {
+                Opt<String> doneKey = editor.isDisposed() ? non() : prewarmVisible(editor, area);
+                finish(indicator, doneKey);
+            }
+            public void onCanceled(@NotNull ProgressIndicator ind) {
+                // user typed something or completion started, idle listener will restart it later
+                finish(indicator, non());
+            }
+        });
+    }
+
+    /** @return key of the resolved file version and range */
+    private Opt<String> prewarmVisible(Editor editor, Rectangle area)
+    {
+        PsiFile file = PsiDocumentManager.getInstance(project).getPsiFile(editor.getDocument());
+        Opt<TextRange> rangeOpt = getVisibleRange(editor, area);
+        if (!(file instanceof PhpFile) || !file.isValid() || !rangeOpt.has()) {
+            return non();
+        }
+        TextRange range = rangeOpt.unw();
+        String key = file.getVirtualFile() + ":" + file.getModificationStamp() + ":" + range;
+        synchronized (this) {
+            if (key.equals(lastDoneKey)) {
+                return non();
+            }
+        }
+        prewarm(file, range);
+        return som(key);
+    }
+
+    private synchronized void finish(ProgressIndicator indicator, Opt<String> doneKey)
+    {
+        if (running.any(ind -> ind == indicator)) {
+            running = non();
+        }
+        doneKey.thn(key -> lastDoneKey = key);
+    }
+
+    private void prewarm(PsiFile file, TextRange range)
+    {
+        PsiElement start = file.findElementAt(range.getStartOffset());
+        PsiElement end = file.findElementAt(Math.max(range.getStartOffset(), range.getEndOffset() - 1));
+        PsiElement scope = start != null && end != null ? PsiTreeUtil.findCommonParent(start, end) : file;
+        if (scope == null) {
+            scope = file;
+        }
+        L<PhpExpression> exprs = L(PsiTreeUtil.<PhpExpression>findChildrenOfAnyType(scope, Variable.class, MethodReference.class))
+            .flt(expr -> range.intersects(expr.getTextRange()))
+            .arr();
+        int depth = AssocKeyPvdr.getMaxDepth(false, project);
+        double timeout = AssocKeyPvdr.getTimeout(true, project);
+        for (PhpExpression expr: exprs.sub(0, MAX_EXPRESSIONS)) {
+            ProgressManager.checkCanceled();
+            // separate search for each expression, so that timeout in
+            // one did not prevent caching of types of the others
+            SearchCtx search = new SearchCtx(project)
+                .setDepth(depth)
+                .setTimeout(timeout);
+            ExprCtx exprCtx = new ExprCtx(new FuncCtx(search), expr, 0);
+            // once iterated, types get to the project cache only if all their keys
+            // and values were resolved in this search before it ran out of limits,
+            // see SearchCtx::share(), so completion never resolves them through it
+            exprCtx.findExprType(expr).arr();
+        }
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (isListening) {
+            IdeEventQueue.getInstance().removeIdleListener(onIdle);
+            isListening = false;
+        }
+        cancel();
+    }
+
+    /** starts pre-warming when user switches to a PHP file */
+    public static class FileListener implements FileEditorManagerListener
+    {
+        final private Project project;
+
+        public FileListener(Project project)
+        {
+            this.project = project;
+        }
+
+        @Override
+        public void selectionChanged(@NotNull FileEditorManagerEvent event)
+        {
+            if (DeepSettings.inst(project).prewarmEnabled) {
+                inst(project).thn(prewarmer -> prewarmer.schedule());
+            }
+        }
+    }
+}
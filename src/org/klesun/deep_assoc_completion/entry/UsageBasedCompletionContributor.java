@@ -75,4 +75,10 @@ public class UsageBasedCompletionContributor extends CompletionContributor
             return false;
         }
     }
+
+    @Override
+    public void fillCompletionVariants(@NotNull CompletionParameters parameters, @NotNull CompletionResultSet result) {
+        TypePrewarmer.yieldTo(parameters.getPosition().getProject());
+        super.fillCompletionVariants(parameters, result);
+    }
 }
@@ -6,12 +6,17 @@ import org.jetbrains.annotations.Nullable;
 import org.klesun.deep_assoc_completion.structures.Build;
 import org.klesun.deep_assoc_completion.structures.DeepType;
 import org.klesun.deep_assoc_completion.structures.Key;
+import org.klesun.deep_assoc_completion.structures.KeyIndex;
 import org.klesun.deep_assoc_completion.structures.KeyType;
 import org.klesun.lang.*;
 
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.Predicate;
 
 import static org.klesun.lang.Lang.*;
 
@@ -129,20 +134,42 @@ public class Mt
             .fap(k -> k.getValueTypes());
     }
 
+    /** take keys of a name from index, unnamed keys are included if they match the filter */
+    private static L<Key> getIndexed(KeyIndex index, String keyName, Predicate<DeepType> unnamedMatches)
+    {
+        return index.getMatching(keyName, k -> k.keyType.getTypes()
+            .any(kt -> kt.stringValue == null && unnamedMatches.test(kt)));
+    }
+
     public static It<DeepType> getDynaPropSt(DeepType type, String keyName)
     {
+        Opt<KeyIndex> indexOpt = keyName == null ? non() : type.getPropIndex();
+        if (indexOpt.has()) {
+            return getIndexed(indexOpt.unw(), keyName, kt -> true)
+                .fap(k -> k.getValueTypes());
+        }
         return getPropOfName(type.props, keyName);
     }
 
+    private static IIt<Key> getKeysOfName(DeepType type, @Nullable String keyName)
+    {
+        Opt<KeyIndex> indexOpt = keyName == null ? non() : type.getKeyIndex();
+        if (indexOpt.has()) {
+            return getIndexed(indexOpt.unw(), keyName, kt -> !kt.isNumber() || Tls.isNum(keyName));
+        }
+        // keys are still being resolved - have to go through all of them
+        return type.keys
+            .flt(k -> keyName == null || k.keyType.getTypes()
+                .any(kt -> keyName.equals(kt.stringValue)
+                    || kt.stringValue == null
+                    && (!kt.isNumber() || Tls.isNum(keyName))));
+    }
+
     public static IIt<DeepType> getKeySt(DeepType type, @Nullable String keyName)
     {
         return IResolvedIt.rnc(
-            type.keys
+            getKeysOfName(type, keyName)
                 // TODO: rnc!
-                .flt(k -> keyName == null || k.keyType.getTypes()
-                    .any(kt -> keyName.equals(kt.stringValue)
-                        || kt.stringValue == null
-                        && (!kt.isNumber() || Tls.isNum(keyName))))
                 .fap(k -> k.getValueTypes()),
             opt(type.briefType.elementType().filterUnknown().filterMixed())
                 .flt(it -> !it.isEmpty()).itr()
@@ -206,6 +233,94 @@ public class Mt
         return ideaType;
     }
 
+    /** whether type is an array/object that can be merged with others without losing anything but correlation of keys */
+    private static boolean isWidenable(DeepType t)
+    {
+        return t.stringValue == null
+            && (t.keys != L.<Key>non() || t.props != L.<Key>non())
+            && !t.ctorArgs.has()
+            && !t.clsRefType.has()
+            && t.returnTypeGetters.size() == 0
+            && t.generics.size() == 0
+            && t.pdoFetchTypes.size() == 0;
+    }
+
+    /**
+     * merge keys of multiple arrays, values of same-named keys are merged lazily
+     * keys are grouped by name in one pass, so that we did not go through all
+     * keys again to collect the values of each name
+     */
+    private static MemIt<Key> unionKeys(L<IReusableIt<Key>> keyLists, int maxTypes)
+    {
+        return It(() -> {
+            Map<String, L<Key>> nameToKeys = new LinkedHashMap<>();
+            L<Key> unnamedKeys = list();
+            keyLists.fap(ks -> ks).fch(k -> {
+                k.keyType.getNames().fch(name -> nameToKeys
+                    .computeIfAbsent(name, n -> list()).add(k));
+                if (k.keyType.getTypes().any(kt -> kt.stringValue == null)) {
+                    unnamedKeys.add(k);
+                }
+            });
+            It<Key> named = It(nameToKeys.entrySet()).map(e -> {
+                L<Key> sameName = e.getValue();
+                Key first = sameName.get(0);
+                return new Key(e.getKey(), first.definition)
+                    .addType(() -> new Mt(widen(sameName
+                        .fap(k -> k.getValueTypes()), maxTypes).mem()), joinIdeaTypes(first.getBriefTypes()))
+                    .addComments(first.comments);
+            });
+            Opt<Key> unnamed = unnamedKeys.fst().map(first -> {
+                IReusableIt<DeepType> keyTypes = unnamedKeys
+                    .fap(k -> k.keyType.getTypes())
+                    .flt(kt -> kt.stringValue == null)
+                    .unq(kt -> list(kt.briefType, kt.isNumber))
+                    .mem();
+                return new Key(KeyType.mt(keyTypes, first.definition), first.definition)
+                    .addType(() -> new Mt(widen(unnamedKeys
+                        .fap(k -> k.getValueTypes()), maxTypes).mem()), joinIdeaTypes(first.getBriefTypes()));
+            });
+            return It.cnc(named, unnamed).iterator();
+        }).mem();
+    }
+
+    private static It<DeepType> merge(L<DeepType> rest, int maxTypes)
+    {
+        L<DeepType> arrTypes = rest.flt(t -> isWidenable(t)).arr();
+        if (arrTypes.size() < 2) {
+            return rest.itr();
+        }
+        DeepType summary = new Build(arrTypes.get(0).definition, joinIdeaTypes(arrTypes.map(t -> t.briefType)))
+            .isExactPsi(false)
+            .keys(unionKeys(arrTypes.map(t -> t.keys).arr(), maxTypes))
+            .props(unionKeys(arrTypes.map(t -> t.props).arr(), maxTypes))
+            .get();
+        return It.cnc(rest.flt(t -> !isWidenable(t)), som(summary));
+    }
+
+    /**
+     * when expression has more than maxTypes types, like an array built in a long chain of
+     * array_merge or in a loop, arrays beyond the limit are merged into a single type with
+     * union of their keys, to cap the work in expressions that use it - completion only
+     * needs the key names and values, not which of them came together
+     *
+     * scalars, like string values, are kept as is since each of them may be a completion option
+     */
+    public static IIt<DeepType> widen(IIt<DeepType> types, int maxTypes)
+    {
+        if (maxTypes <= 0 || types instanceof IResolvedIt && types.arr().size() <= maxTypes) {
+            return types;
+        }
+        // single pass through the source, result is memoized by the caller anyway
+        return It(() -> {
+            Iterator<DeepType> source = types.iterator();
+            return It.cnc(
+                It(() -> source).lmt(maxTypes),
+                It(() -> merge(It(() -> source).arr(), maxTypes).iterator())
+            ).iterator();
+        });
+    }
+
     public IIt<PhpType> getIdeaTypes()
     {
         return types.map(t -> t.briefType)
@@ -0,0 +1,155 @@
+package org.klesun.deep_assoc_completion.helpers;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import org.klesun.deep_assoc_completion.contexts.IExprCtx;
+import org.klesun.lang.*;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * resolves independent sources of types, like assignments of a var or implementations
+ * of a method, in separate threads when parallel resolution is enabled in settings
+ *
+ * results are concatenated in same order as sources are, so completion does not
+ * depend on which thread finished first. Each branch is fully iterated, but keys
+ * of resulting types are still resolved lazily by whoever uses them
+ *
+ * threads belong to the project, they are stopped when it is closed
+ */
+public class ParallelRes extends Lang implements Disposable
+{
+    // IDEA needs some cores for highlighting and indexing
+    final private static int MAX_THREADS = 8;
+    private ForkJoinPool pool = null;
+    private boolean disposed = false;
+
+    private static Opt<ParallelRes> inst(Project project)
+    {
+        return opt(ServiceManager.getService(project, ParallelRes.class));
+    }
+
+    /** @return non() after project was closed */
+    private synchronized Opt<ForkJoinPool> getPool()
+    {
+        if (disposed) {
+            return non();
+        } else if (pool == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            pool = new ForkJoinPool(Math.max(1, Math.min(MAX_THREADS, cores - 1)));
+        }
+        return som(pool);
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        disposed = true;
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    public static <T, R> It<R> fap(IExprCtx ctx, Iterable<T> sources, F<T, Iterable<R>> resolve)
+    {
+        if (!ctx.getSearch().isParallel()) {
+            return It(sources).fap(resolve);
+        }
+        Opt<ForkJoinPool> pool = ctx.getSearch().project
+            .fop(ParallelRes::inst)
+            .fop(res -> res.getPool());
+        if (!pool.has()) {
+            return It(sources).fap(resolve);
+        }
+        return It(() -> fork(pool.unw(), L(sources), resolve).iterator());
+    }
+
+    private static <T, R> It<R> fork(ForkJoinPool pool, L<T> sources, F<T, Iterable<R>> resolve)
+    {
+        if (sources.size() < 2) {
+            return sources.fap(resolve);
+        }
+        ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        L<Branch<R>> branches = sources.map(src -> new Branch<R>(() -> L(resolve.apply(src)))).arr();
+        try {
+            // first branch will be taken by current thread anyway
+            branches.sub(1).fch(branch -> pool.execute(() -> branch.runAsync(indicator)));
+        } catch (RejectedExecutionException exc) {
+            // project was closed meanwhile, not started branches are resolved in current thread
+        }
+        return branches.fap(branch -> branch.join());
+    }
+
+    private static class Branch<R>
+    {
+        final private S<L<R>> resolve;
+        // held by the thread resolving the branch
+        final private OwnedLock lock = new OwnedLock();
+        private volatile boolean done = false;
+        private L<R> result = L();
+        private Throwable error = null;
+
+        Branch(S<L<R>> resolve)
+        {
+            this.resolve = resolve;
+        }
+
+        /** should be called while holding the lock */
+        private void run()
+        {
+            if (done) {
+                return;
+            }
+            try {
+                // iterators of a parallel search may be passed to other branches
+                result = MemIt.threadSafeIn(resolve);
+            } catch (Throwable exc) {
+                error = exc;
+            }
+            done = true;
+        }
+
+        void runAsync(ProgressIndicator indicator)
+        {
+            if (done || !lock.tryLock()) {
+                // already taken by the thread that needs the result
+                return;
+            }
+            try {
+                Runnable withProgress = indicator == null ? this::run
+                    : () -> ProgressManager.getInstance().runProcess(this::run, indicator);
+                // if write action is pending, leave the branch to the waiting thread, since it
+                // already holds the read lock and we would block till it releases it
+                ApplicationManager.getApplication().tryRunReadAction(withProgress);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        L<R> join()
+        {
+            // if worker did not start it yet, resolve it in current thread
+            if (lock.lockAwaiting()) {
+                try {
+                    run();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException)error;
+            } else if (error instanceof Error) {
+                throw (Error)error;
+            } else if (error != null) {
+                throw new RuntimeException(error);
+            }
+            return result;
+        }
+    }
+}
@@ -6,12 +6,12 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiWhiteSpace;
 import com.intellij.psi.impl.source.tree.PsiCommentImpl;
 import com.intellij.psi.impl.source.tree.PsiWhiteSpaceImpl;
-import com.jetbrains.php.PhpIndex;
 import com.jetbrains.php.lang.psi.elements.*;
 import com.jetbrains.php.lang.psi.elements.impl.ArrayCreationExpressionImpl;
 import com.jetbrains.php.lang.psi.elements.impl.ClassConstantReferenceImpl;
 import com.jetbrains.php.lang.psi.elements.impl.ClassReferenceImpl;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import org.klesun.deep_assoc_completion.contexts.ClsHierarchyCache;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.deep_assoc_completion.resolvers.mem_res.MemRes;
@@ -78,7 +78,7 @@ public class ArrCtorRes extends Lang
     public static It<PhpClass> resolveIdeaTypeCls(PhpType ideaType, Project project)
     {
         return It(ideaTypeToFqn(ideaType))
-            .fap(clsPath -> PhpIndex.getInstance(project).getAnyByFQN(clsPath))
+            .fap(clsPath -> ClsHierarchyCache.inst(project).getAnyByFqn(clsPath))
             .fop(Lang::opt);
     }
 
@@ -145,8 +145,8 @@ public class ArrCtorRes extends Lang
                         () -> "self".equals(clsName)
                             ? Tls.findParent(clsPsi, PhpClass.class, a -> true)
                             : opt(null),
-                        () -> It(PhpIndex.getInstance(expr.getProject())
-                            .getAnyByFQN(clsName)).fst()
+                        () -> ClsHierarchyCache.inst(expr.getProject())
+                            .getAnyByFqn(clsName).fst()
                     ))
             ));
     }
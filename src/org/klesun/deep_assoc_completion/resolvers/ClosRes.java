@@ -6,6 +6,7 @@ import com.jetbrains.php.lang.psi.elements.impl.FunctionImpl;
 import com.jetbrains.php.lang.psi.elements.impl.PhpReturnImpl;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
+import org.klesun.deep_assoc_completion.entry.ReturnShapeIndex;
 import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.deep_assoc_completion.structures.Build;
 import org.klesun.deep_assoc_completion.structures.DeepType;
@@ -132,6 +133,55 @@ public class ClosRes extends Lang
         );
     }
 
+    private static DeepType makeIndexedValue(Function func, ReturnShapeIndex.KeyRec rec)
+    {
+        if (rec.valueKind == 'i') {
+            return DeepType.makeInt(func, rec.value);
+        } else if (rec.valueKind == 'f') {
+            return DeepType.makeFloat(func, rec.value);
+        } else {
+            return new DeepType(func, PhpType.STRING, rec.value);
+        }
+    }
+
+    /**
+     * key names of a function that returns only array literals are taken from the index,
+     * one type per `return`, like the body resolution would give. Values that are not
+     * scalar literals are resolved from the return on demand. Used only while file is not
+     * parsed, since key definitions lead to the function rather than to the array literal
+     */
+    public static Opt<L<DeepType>> getIndexedReturn(Function func, IExprCtx ctx)
+    {
+        if (func.isClosure() || Tls.isParsed(func)) {
+            return non();
+        }
+        return ReturnShapeIndex.get(func).map(recs -> recs
+            .grp(rec -> rec.returnOrder + "")
+            .vls()
+            .map(retRecs -> {
+                int returnOrder = retRecs.get(0).returnOrder;
+                S<Mt> getRetMt = Tls.onDemand(() -> findFunctionReturns(func).gat(returnOrder)
+                    .fop(ret -> opt(ret.getArgument()))
+                    .fop(toCast(PhpExpression.class))
+                    .fap(val -> ctx.findExprType(val))
+                    .wap(Mt::mem));
+                L<Key> keys = retRecs.grp(rec -> rec.name)
+                    .map((sameName, name) -> {
+                        Key key = new Key(name, func);
+                        if (sameName.all(rec -> rec.isSimple())) {
+                            L<DeepType> valTypes = sameName.map(rec -> makeIndexedValue(func, rec)).arr();
+                            PhpType briefType = Mt.joinIdeaTypes(valTypes.map(t -> t.briefType));
+                            return key.addType(Granted(new Mt(valTypes)), briefType);
+                        } else {
+                            return key.addType(() -> getRetMt.get().getKey(name), PhpType.MIXED);
+                        }
+                    })
+                    .vls().arr();
+                return new Build(func, PhpType.ARRAY).keys(keys).get();
+            })
+            .arr());
+    }
+
     public static It<Variable> getClosureVars(Function func)
     {
         return It(func.getChildren())
@@ -152,7 +202,10 @@ public class ClosRes extends Lang
                 })
                 .arr();
             IExprCtx closCtx = callCtx.withClosure(closureVars, ctx);
-            return new MemIt<>(getReturnedValue(func, closCtx));
+            return new MemIt<>(getIndexedReturn(func, closCtx).uni(
+                ts -> It(ts),
+                () -> getReturnedValue(func, closCtx)
+            ));
         });
         return result;
     }
@@ -6,6 +6,7 @@ import com.intellij.psi.PsiFile;
 import com.jetbrains.php.lang.psi.elements.*;
 import com.jetbrains.php.lang.psi.elements.impl.*;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import org.klesun.deep_assoc_completion.contexts.ExprCtx;
 import org.klesun.deep_assoc_completion.contexts.FuncCtx;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
 import org.klesun.deep_assoc_completion.resolvers.mem_res.MemRes;
@@ -88,7 +89,10 @@ public class DirectTypeResolver {
     {
         return IResolvedIt.fst(L::non
             , () -> Tls.cast(ArrayCreationExpressionImpl.class, expr)
-                .map(arr -> new ArrCtorRes(ctx).resolve(arr))
+                .map(arr -> {
+                    markResolver("ArrCtorRes");
+                    return new ArrCtorRes(ctx).resolve(arr);
+                })
             , () -> Tls.cast(StringLiteralExpressionImpl.class, expr)
                 .map(lit -> new DeepType(lit))
             , () -> Tls.cast(ConstantReferenceImpl.class, expr)
@@ -119,6 +123,14 @@ public class DirectTypeResolver {
         );
     }
 
+    /** for profiling - remember which of the resolvers below handled the expression */
+    private void markResolver(String name)
+    {
+        if (ctx.getSearch().profile) {
+            Tls.cast(ExprCtx.class, ctx).thn(exprCtx -> exprCtx.resolver = som(name));
+        }
+    }
+
     public IIt<DeepType> resolve(PhpExpression expr)
     {
         IResolvedIt<DeepType> plainTypes = resolveAsPlainType(expr);
@@ -129,11 +141,20 @@ public class DirectTypeResolver {
 
         return It.frs(() -> non()
             , () -> Tls.cast(VariableImpl.class, expr)
-                .fap(v -> new VarRes(ctx).resolve(v))
+                .fap(v -> {
+                    markResolver("VarRes");
+                    return new VarRes(ctx).resolve(v);
+                })
             , () -> Tls.cast(FunctionReferenceImpl.class, expr)
-                .fap(call -> new FuncCallRes(ctx).resolve(call))
+                .fap(call -> {
+                    markResolver("FuncCallRes");
+                    return new FuncCallRes(ctx).resolve(call);
+                })
             , () -> Tls.cast(ArrayAccessExpressionImpl.class, expr)
-                .fap(keyAccess -> new ArrAccRes(ctx).resolve(keyAccess))
+                .fap(keyAccess -> {
+                    markResolver("ArrAccRes");
+                    return new ArrAccRes(ctx).resolve(keyAccess);
+                })
             , () -> Tls.cast(ConstantReferenceImpl.class, expr)
                 .flt(cst -> cst.getText().equals("__DIR__"))
                 .fap(ref -> !isInFakeFile(ref) ? som(ref) : ctx.getFakeFileSource())
@@ -172,13 +193,22 @@ public class DirectTypeResolver {
             , () -> Tls.cast(PhpExpressionImpl.class, expr)
                 .map(v -> v.getFirstChild())
                 .fop(toCast(FunctionImpl.class))
-                .fap(lambda -> list(new ClosRes(ctx).resolve(lambda)))
+                .fap(lambda -> {
+                    markResolver("ClosRes");
+                    return list(new ClosRes(ctx).resolve(lambda));
+                })
             // leave rest to MiscRes
             , () -> new MiscRes(ctx).resolve(expr)
             , () -> Tls.cast(MethodReferenceImpl.class, expr)
-                .fap(call -> new MethCallRes(ctx).resolveCall(call))
+                .fap(call -> {
+                    markResolver("MethCallRes");
+                    return new MethCallRes(ctx).resolveCall(call);
+                })
             , () -> Tls.cast(FieldReferenceImpl.class, expr)
-                .fap(fieldRef -> new FieldRes(ctx).resolve(fieldRef))
+                .fap(fieldRef -> {
+                    markResolver("FieldRes");
+                    return new FieldRes(ctx).resolve(fieldRef);
+                })
             , () -> som(new DeepType(expr))
         );
     }
@@ -3,6 +3,8 @@ package org.klesun.deep_assoc_completion.resolvers;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocProperty;
@@ -13,6 +15,7 @@ import com.jetbrains.php.lang.psi.elements.impl.FieldReferenceImpl;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
+import org.klesun.deep_assoc_completion.helpers.ParallelRes;
 import org.klesun.deep_assoc_completion.resolvers.mem_res.MemRes;
 import org.klesun.deep_assoc_completion.resolvers.var_res.AssRes;
 import org.klesun.deep_assoc_completion.resolvers.var_res.DocParamRes;
@@ -21,11 +24,13 @@ import org.klesun.deep_assoc_completion.structures.DeepType;
 import org.klesun.deep_assoc_completion.structures.Key;
 import org.klesun.deep_assoc_completion.structures.KeyType;
 import org.klesun.lang.It;
+import org.klesun.lang.L;
 import org.klesun.lang.Lang;
 import org.klesun.lang.Opt;
 import org.klesun.lang.Tls;
 
-import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
 public class FieldRes extends Lang
@@ -37,7 +42,23 @@ public class FieldRes extends Lang
         this.ctx = ctx;
     }
 
-    private It<FieldReferenceImpl> findReferences(PsiFile file, String name)
+    /**
+     * field name -> references in the file, kept till the file is changed, since
+     * collecting them takes 6 milliseconds on just ApolloPnrFieldsOnDemand.php each time
+     */
+    private static Map<String, L<FieldReferenceImpl>> getNameToRefs(PsiFile file)
+    {
+        return CachedValuesManager.getCachedValue(file, () -> {
+            Map<String, L<FieldReferenceImpl>> nameToRefs = new HashMap<>();
+            for (FieldReferenceImpl ref: PsiTreeUtil.findChildrenOfType(file, FieldReferenceImpl.class)) {
+                opt(ref.getName()).thn(name -> nameToRefs
+                    .computeIfAbsent(name, n -> list()).add(ref));
+            }
+            return CachedValueProvider.Result.create(nameToRefs, file);
+        });
+    }
+
+    private static It<FieldReferenceImpl> findReferences(PsiFile file, String name)
     {
         // ReferenceSearch seems to cause freezes
 //        SearchScope scope = GlobalSearchScope.fileScope(
@@ -46,18 +67,8 @@ public class FieldRes extends Lang
 //        );
 //        return ReferencesSearch.search(decl, scope, false).findAll();
 
-        // this takes 6 milliseconds on just ApolloPnrFieldsOnDemand.php each time
-        // maybe it can be done more efficiently like iterating manually (could return iterator in such case BTW), caching or reusing IDEA's reference provider
-        // but if I remember correctly, IDEA's reference resolver was not used here because it randomly threw exceptions
-        if (!ctx.getFieldRefCache().containsKey(file)) {
-            long startTime = System.nanoTime();
-            ctx.getFieldRefCache().put(file, PsiTreeUtil.findChildrenOfType(file, FieldReferenceImpl.class));
-            double elapsed = (System.nanoTime() - startTime) / 1000000000.0;
-            //System.out.println("found refs in " + file.getName() + " over " + elapsed + " seconds");
-        }
-        Collection<FieldReferenceImpl> refs = ctx.getFieldRefCache().get(file);
-        return It(refs)
-            .flt(ref -> name.equals(ref.getName()));
+        // if I remember correctly, IDEA's reference resolver was not used here because it randomly threw exceptions
+        return It(opt(getNameToRefs(file).get(name)).def(L.non()));
     }
 
     private static boolean areInSameScope(PsiElement a, PsiElement b)
@@ -99,7 +110,13 @@ public class FieldRes extends Lang
                 .fop(methCtx -> (new AssRes(methCtx)).collectAssignment(assPsi, false)));
     }
 
+    /** same for all field references unless doc or default value refers to $this or static */
     public static It<DeepType> declToExplTypes(Field resolved, IExprCtx memCtx)
+    {
+        return memCtx.findSummarized(resolved, "declaration", probeCtx -> resolveDeclaration(resolved, probeCtx));
+    }
+
+    private static It<DeepType> resolveDeclaration(Field resolved, IExprCtx memCtx)
     {
         IExprCtx implCtx = memCtx.subCtxEmpty();
         It<DeepType> defTs = Tls.cast(FieldImpl.class, resolved).itr()
@@ -133,15 +150,14 @@ public class FieldRes extends Lang
     private It<DeepType> declsToTypes(FieldReferenceImpl fieldRef, It<Field> declarations)
     {
         IExprCtx memCtx = ctx.subCtxMem(fieldRef);
-        return declarations
-            .fap(resolved -> {
-                It<DeepType> explTypes = declToExplTypes(resolved, memCtx);
-                It<Assign> asses = getAssignments(resolved, fieldRef);
-                return It.cnc(
-                    explTypes,
-                    AssRes.assignmentsToTypes(asses)
-                );
-            });
+        return ParallelRes.fap(ctx, declarations, resolved -> {
+            It<DeepType> explTypes = declToExplTypes(resolved, memCtx);
+            It<Assign> asses = getAssignments(resolved, fieldRef);
+            return It.cnc(
+                explTypes,
+                AssRes.assignmentsToTypes(asses)
+            );
+        });
     }
 
     private It<DeepType> resolveMagicProp(PhpClass cls, IExprCtx exprCtx)
@@ -19,9 +19,11 @@ import com.jetbrains.php.lang.psi.stubs.indexes.expectedArguments.PhpExpectedFun
 import com.jetbrains.php.lang.psi.stubs.indexes.expectedArguments.PhpExpectedFunctionScalarArgument;
 import com.jetbrains.php.lang.psi.stubs.indexes.expectedArguments.PhpExpectedReturnValuesIndex;
 import org.jetbrains.annotations.Nullable;
+import org.klesun.deep_assoc_completion.contexts.ClsHierarchyCache;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
 import org.klesun.deep_assoc_completion.entry.DeepSettings;
 import org.klesun.deep_assoc_completion.helpers.Mt;
+import org.klesun.deep_assoc_completion.helpers.ParallelRes;
 import org.klesun.deep_assoc_completion.resolvers.builtins.MysqliRes;
 import org.klesun.deep_assoc_completion.resolvers.mem_res.MemRes;
 import org.klesun.deep_assoc_completion.resolvers.var_res.DocParamRes;
@@ -52,22 +54,14 @@ public class MethCallRes extends Lang
     }
 
     public static L<PhpClass> getSupersAllowDupeFqn(PhpClass cls) {
-        String superName = cls.getSuperFQN();
-        PhpIndex phpIndex = PhpIndex.getInstance(cls.getProject());
-
-        return It.cnc(
-            phpIndex.getClassesByFQN(superName),
-            It(cls.getImplementedInterfaces()),
-            It(cls.getTraits())
-        ).arr();
+        return ClsHierarchyCache.inst(cls.getProject()).getSupers(cls);
     }
 
     public static It<Method> findOverridingMethods(Method meth)
     {
-        return opt(PhpIndex.getInstance(meth.getProject()))
-            .fop(idx -> opt(meth.getContainingClass())
-                .map(cls -> idx.getAllSubclasses(cls.getFQN())))
-            .fap(clses -> clses)
+        ClsHierarchyCache hierarchy = ClsHierarchyCache.inst(meth.getProject());
+        return opt(meth.getContainingClass())
+            .fap(cls -> hierarchy.getAllSubclasses(cls.getFQN()))
             .fop(cls -> opt(cls.findMethodByName(meth.getName())));
     }
 
@@ -290,9 +284,12 @@ public class MethCallRes extends Lang
             It<DeepType> docTit = findFuncDocRetType(meth, fullCtx);
             It<DeepType> magicDocTit = Tls.cast(PhpDocMethod.class, meth)
                 .fap(doc -> parseMethDoc(doc, fullCtx));
-            It<DeepType> implTit = impls.fap(m -> It.cnc(
+            It<DeepType> implTit = ParallelRes.fap(fullCtx, impls, m -> It.cnc(
                 opt(m.getReturnType()).fap(rt -> list(new DeepType(rt, rt.getType()))),
-                ClosRes.getReturnedValue(m, finalImplCtx)
+                ClosRes.getIndexedReturn(m, finalImplCtx).uni(
+                    ts -> It(ts),
+                    () -> finalImplCtx.findSummarized(m, "return", implCtx -> ClosRes.getReturnedValue(m, implCtx))
+                )
             ));
             return It.cnc(docTit, magicDocTit, implTit);
         };
@@ -220,7 +220,8 @@ public class PsalmRes {
         });
         result.putAll(getClsGenericTypes(psalmInfo.classGenerics, ctx));
         // not a real generic, but close enough
-        result.put("static", ctx.getSelfType().map(pst -> new DeepType(psalmInfo.psi, pst)).itr().mem());
+        // lazy, so that docs not referring to static could be shared between contexts
+        result.put("static", It(() -> ctx.getSelfType().map(pst -> new DeepType(psalmInfo.psi, pst)).itr().iterator()).mem());
         return result;
     }
 
@@ -238,10 +239,10 @@ public class PsalmRes {
 
     public static IIt<DeepType> resolveReturn(PhpDocTag docTag, IExprCtx ctx)
     {
-        return opt(docTag.getParent())
+        return ctx.findSummarized(docTag, "psalmReturn", docCtx -> It(opt(docTag.getParent())
             .cst(PhpDocComment.class)
             .map(docComment -> PsalmFuncInfo.parse(docComment))
-            .rap(psalmInfo -> infoToDeep(psalmInfo, docTag, ctx));
+            .rap(psalmInfo -> infoToDeep(psalmInfo, docTag, docCtx))));
     }
 
     public static IIt<DeepType> resolveMagicReturn(PhpDocComment docComment, String methName, IExprCtx ctx)
@@ -253,11 +254,13 @@ public class PsalmRes {
 
     public static IIt<DeepType> resolveVar(PhpDocComment docComment, String varName, IExprCtx ctx)
     {
-        PsalmFuncInfo psalmInfo = PsalmFuncInfo.parse(docComment);
-        Map<String, MemIt<DeepType>> generics = getGenericTypes(psalmInfo, ctx);
-        return psalmInfo.params.flt(p -> p.name.equals(varName) || p.name.equals(""))
-            .fop(p -> p.psalmType).arr()
-            .rap(psalmt -> psalmToDeep(psalmt, docComment, generics));
+        return ctx.findSummarized(docComment, "psalmVar " + varName, docCtx -> {
+            PsalmFuncInfo psalmInfo = PsalmFuncInfo.parse(docComment);
+            Map<String, MemIt<DeepType>> generics = getGenericTypes(psalmInfo, docCtx);
+            return It(psalmInfo.params.flt(p -> p.name.equals(varName) || p.name.equals(""))
+                .fop(p -> p.psalmType).arr()
+                .rap(psalmt -> psalmToDeep(psalmt, docComment, generics)));
+        });
     }
 
     public static IIt<DeepType> resolveMagicProp(PhpDocComment docComment, String name, IExprCtx ctx)
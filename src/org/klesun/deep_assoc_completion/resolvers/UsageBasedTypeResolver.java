@@ -1,6 +1,8 @@
 package org.klesun.deep_assoc_completion.resolvers;
 
+import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
+import com.jetbrains.php.PhpIndex;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
 import com.jetbrains.php.lang.psi.elements.*;
 import com.jetbrains.php.lang.psi.elements.impl.*;
@@ -13,6 +15,7 @@ import org.klesun.deep_assoc_completion.contexts.FuncCtx;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
 import org.klesun.deep_assoc_completion.contexts.SearchCtx;
 import org.klesun.deep_assoc_completion.entry.DeepSettings;
+import org.klesun.deep_assoc_completion.entry.ParamUsageIndex;
 import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.deep_assoc_completion.resolvers.var_res.ArgRes;
 import org.klesun.deep_assoc_completion.resolvers.var_res.DocParamRes;
@@ -85,29 +88,84 @@ public class UsageBasedTypeResolver
                 .map(varUsage -> acc.getIndex()));
     }
 
+    private It<DeepType> findUsedKeys(Function meth, ParameterImpl arg, IExprCtx nextCtx)
+    {
+        return findUsedIndexes(meth, arg.getName())
+            .map(idx -> idx.getValue())
+            .cst(PhpExpression.class)
+            .fap(lit -> nextCtx.limitResolveDepth(15, lit)
+                .unq(t -> t.stringValue)
+                .fap(t -> opt(t.stringValue)
+                    .map(name -> {
+                        S<Mt> getType = () -> Tls.findParent(lit, ArrayAccessExpression.class, a -> true)
+                            .fap(acc -> new UsageBasedTypeResolver(nextCtx, depthLeft - 1).resolve(acc))
+                            .wap(Mt::mem);
+                        Key keyEntry = new Key(name, t.definition).addType(getType, PhpType.UNSET);
+                        return new Build(arg, PhpType.ARRAY)
+                            .keys(som(keyEntry))
+                            .get();
+                    }))
+            );
+    }
+
+    /** same as findArgExprTypeFromUsage(), but for a function call taken from index */
+    private It<DeepType> findForwardedArgType(ParamUsageIndex.Forward fwd, Project project)
+    {
+        if (depthLeft < 1) {
+            return It.non();
+        }
+        PhpIndex phpIndex = PhpIndex.getInstance(project);
+        It<Function> funcs = It.frs(
+            () -> phpIndex.getFunctionsByFQN(fwd.funcFqn),
+            () -> fwd.globalFqn.fap(phpIndex::getFunctionsByFQN)
+        );
+        return It.cnc(
+            findFqnMetaArgType(fwd.funcFqn, fwd.argOrder, fakeCtx),
+            funcs.fap(func -> findFuncArgType(func, fwd.argOrder, fakeCtx.subCtxEmpty()))
+        );
+    }
+
+    /**
+     * keys and forwarding calls of the param are taken from index while the file of the
+     * function is not parsed, key value types are still resolved from the body on demand
+     */
+    private It<DeepType> findIndexedArgType(Function meth, ParameterImpl arg, ParamUsageIndex.ParamRec rec, IExprCtx nextCtx)
+    {
+        UsageBasedTypeResolver nextResolver = new UsageBasedTypeResolver(nextCtx, depthLeft - 1);
+        It<DeepType> keyTit = It(rec.keys).map(name -> {
+            S<Mt> getType = () -> findUsedIndexes(meth, arg.getName())
+                .flt(idx -> opt(idx.getValue())
+                    .cst(StringLiteralExpression.class)
+                    .any(lit -> name.equals(lit.getContents())))
+                .fop(idx -> opt(idx.getParent()))
+                .cst(ArrayAccessExpression.class)
+                .fap(acc -> nextResolver.resolve(acc))
+                .wap(Mt::mem);
+            Key keyEntry = new Key(name, arg).addType(getType, PhpType.UNSET);
+            return new Build(arg, PhpType.ARRAY)
+                .keys(som(keyEntry))
+                .get();
+        });
+        It<DeepType> forwardTit = It(rec.forwards)
+            .fap(fwd -> nextResolver.findForwardedArgType(fwd, arg.getProject()));
+        return It.cnc(keyTit, forwardTit);
+    }
+
     public It<DeepType> findArgTypeFromUsage(Function meth, int argOrder, IExprCtx nextCtx)
     {
+        Opt<ParamUsageIndex.ParamRec> indexed = Tls.isParsed(meth)
+            ? non() : ParamUsageIndex.get(meth, argOrder);
         return L(meth.getParameters()).gat(argOrder)
             .fop(toCast(ParameterImpl.class))
             .fap(arg -> It.cnc(
                 ArgRes.resolveDeclaredType(arg, nextCtx),
-                findUsedIndexes(meth, arg.getName())
-                    .map(idx -> idx.getValue())
-                    .cst(PhpExpression.class)
-                    .fap(lit -> nextCtx.limitResolveDepth(15, lit)
-                        .unq(t -> t.stringValue)
-                        .fap(t -> opt(t.stringValue)
-                            .map(name -> {
-                                S<Mt> getType = () -> Tls.findParent(lit, ArrayAccessExpression.class, a -> true)
-                                    .fap(acc -> new UsageBasedTypeResolver(nextCtx, depthLeft - 1).resolve(acc))
-                                    .wap(Mt::mem);
-                                Key keyEntry = new Key(name, t.definition).addType(getType, PhpType.UNSET);
-                                return new Build(arg, PhpType.ARRAY)
-                                    .keys(som(keyEntry))
-                                    .get();
-                            }))
-                    ),
-                new UsageBasedTypeResolver(nextCtx, depthLeft - 1).findVarTypeFromUsage(arg)
+                indexed.uni(
+                    rec -> findIndexedArgType(meth, arg, rec, nextCtx),
+                    () -> It.cnc(
+                        findUsedKeys(meth, arg, nextCtx),
+                        new UsageBasedTypeResolver(nextCtx, depthLeft - 1).findVarTypeFromUsage(arg)
+                    )
+                )
             ));
     }
 
@@ -245,6 +303,13 @@ public class UsageBasedTypeResolver
                 .fap(methCall -> (new MethCallRes(fakeCtx)).getCmsModelRowType(methCall, meth)));
     }
 
+    // functions whose arg types depend on other args of the call, see findBuiltInArgType(),
+    // they are not described by ParamUsageIndex, as it has no access to the other args
+    final public static Set<String> ARG_LIST_FUNCS = new HashSet<>(list(
+        "array_merge", "array_replace", "method_exists", "array_key_exists",
+        "key_exists", "array_column", "array_map"
+    ));
+
     private It<DeepType> findBuiltInArgType(Function builtInFunc, int argOrder, ParameterList argList)
     {
         // TODO: refactor, I believe there is no need to actually resolve the
@@ -282,7 +347,6 @@ public class UsageBasedTypeResolver
                             FieldRes.getPublicProps(rect.mt(),
                                 builtInFunc.getProject(), fakeCtx.subCtxEmpty())
                         ).fap(k -> k.keyType.getTypes()))),
-                new ArgTypeDefs(fakeCtx.subCtxEmpty()).getArgType(builtInFunc, argOrder),
                 findKeysUsedInArrayMap(builtInFunc, argList, argOrder)
             ));
     }
@@ -347,22 +411,31 @@ public class UsageBasedTypeResolver
         );
     }
 
+    /** arg types that do not depend on the other args of the call */
+    private It<DeepType> findFuncArgType(Function meth, int order, IExprCtx nextCtx)
+    {
+        return It.cnc(
+            getImplementations(meth).fap(ipl -> findArgTypeFromUsage(ipl, order, nextCtx)),
+            new ArgTypeDefs(fakeCtx.subCtxEmpty()).getArgType(meth, order),
+            findCallableMetaArgType(meth, order) // for meta info on methods in parent classes
+        );
+    }
+
     private It<DeepType> findArgExprTypeFromUsage(PhpExpression caretExpr, ParameterList argList)
     {
         int order = L(argList.getParameters()).indexOf(caretExpr);
         Opt<PsiElement> callOpt = opt(argList.getParent());
         It<DeepType> asRealFuncArg = resolveFunc(argList)
-            .fap(meth -> It.cnc(
-                getImplementations(meth).fap(ipl -> {
-                    IExprCtx nextCtx = callOpt.fop(call -> Opt.fst(
-                        () -> Tls.cast(MethodReference.class, call).map(casted -> fakeCtx.subCtxDirect(casted)),
-                        () -> Tls.cast(NewExpression.class, call).map(casted -> fakeCtx.subCtxDirect(casted))
-                    )).def(fakeCtx.subCtxEmpty());
-                    return findArgTypeFromUsage(ipl, order, nextCtx);
-                }),
-                findBuiltInArgType(meth, order, argList),
-                findCallableMetaArgType(meth, order) // for meta info on methods in parent classes
-            ));
+            .fap(meth -> {
+                IExprCtx nextCtx = callOpt.fop(call -> Opt.fst(
+                    () -> Tls.cast(MethodReference.class, call).map(casted -> fakeCtx.subCtxDirect(casted)),
+                    () -> Tls.cast(NewExpression.class, call).map(casted -> fakeCtx.subCtxDirect(casted))
+                )).def(fakeCtx.subCtxEmpty());
+                return It.cnc(
+                    findFuncArgType(meth, order, nextCtx),
+                    findBuiltInArgType(meth, order, argList)
+                );
+            });
 
         It<DeepType> asMagicCtorArg = opt(argList.getParent())
             .fop(toCast(NewExpressionImpl.class))
@@ -11,6 +11,7 @@ import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.completion_providers.VarNamePvdr;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
+import org.klesun.deep_assoc_completion.helpers.ParallelRes;
 import org.klesun.deep_assoc_completion.helpers.ScopeFinder;
 import org.klesun.deep_assoc_completion.resolvers.var_res.ArgRes;
 import org.klesun.deep_assoc_completion.resolvers.var_res.AssRes;
@@ -345,7 +346,7 @@ public class VarRes
             asses = asses.sub(lastDeclPos);
         }
 
-        return AssRes.assignmentsToTypes(asses);
+        return ParallelRes.fap(ctx, asses, ass -> AssRes.assignmentsToTypes(som(ass)));
     }
 
     public It<DeepType> resolve(Variable caretVar)
@@ -14,13 +14,13 @@ import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.deep_assoc_completion.structures.Build;
 import org.klesun.deep_assoc_completion.structures.DeepType;
 import org.klesun.deep_assoc_completion.structures.Key;
+import org.klesun.deep_assoc_completion.structures.sql.SqlSelect;
+import org.klesun.deep_assoc_completion.structures.sql.SqlSelectParser;
 import org.klesun.lang.It;
 import org.klesun.lang.L;
 import org.klesun.lang.*;
 import org.klesun.lang.iterators.RegexIterator;
 
-import java.util.regex.Pattern;
-
 import static org.klesun.lang.Lang.*;
 
 public class MysqliRes
@@ -66,29 +66,28 @@ public class MysqliRes
             ));
     }
 
+    /** `t.*` takes columns of the joined table or subquery aliased as `t` */
+    private static It<String> getSelectedNames(SqlSelect select, Project project)
+    {
+        return select.columns.fap(col -> {
+            if (!col.isStar) {
+                return It(som(col.name));
+            }
+            return select.getStarTables(col)
+                .fap(tbl -> tbl.subquery.uni(
+                    sub -> getSelectedNames(sub, project),
+                    () -> getTableColumns(tbl.name, project)
+                ));
+        }).unq();
+    }
+
     public DeepType parseSqlSelect(DeepType strType, Project project)
     {
         String sql = opt(strType.stringValue).def("");
-        int regexFlags = Pattern.DOTALL | Pattern.CASE_INSENSITIVE;
-        Opt<L<String>> matched = Opt.fst(
-            () -> Tls.regex("\\s*SELECT\\s+(\\S.*?)\\s+FROM\\s+([A-Za-z_][A-Za-z0-9_]*)?.*?", sql, regexFlags),
-            () -> Tls.regex("\\s*SELECT\\s+(\\S.*)", sql, regexFlags) // partial SQL without FROM
-        );
-        Iterable<Key> keys = matched.fap(matches -> {
-            It<String> fields = It(matches.gat(0).def("").split(",", -1));
-            String table = matches.gat(1).def("");
-            return fields.map(str -> str.trim())
-                .fap(f -> {
-                    if (f.equals("*")) {
-                        return getTableColumns(table, project);
-                    } else {
-                        return Tls.regex("(\\S+.*?\\.)?(\\S+\\s+AS\\s+)?(\\S+)", f, regexFlags)
-                            .fop(m -> m.gat(2))
-                            .fap(a -> list(a));
-                    }
-                });
-        }).map(name -> new Key(name, ctx.getRealPsi(strType.definition))
-            .addType(() -> new Mt(list(new DeepType(strType.definition, PhpType.STRING))), PhpType.STRING));
+        Iterable<Key> keys = SqlSelectParser.parse(sql)
+            .fap(select -> getSelectedNames(select, project))
+            .map(name -> new Key(name, ctx.getRealPsi(strType.definition))
+                .addType(() -> new Mt(list(new DeepType(strType.definition, PhpType.STRING))), PhpType.STRING));
 
         return new Build(strType.definition, PhpType.ARRAY)
             .keys(keys)
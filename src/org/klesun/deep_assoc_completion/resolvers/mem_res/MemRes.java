@@ -2,13 +2,13 @@ package org.klesun.deep_assoc_completion.resolvers.mem_res;
 
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiWhiteSpace;
-import com.jetbrains.php.PhpIndex;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
 import com.jetbrains.php.lang.psi.elements.MemberReference;
 import com.jetbrains.php.lang.psi.elements.PhpClass;
 import com.jetbrains.php.lang.psi.elements.PhpExpression;
 import com.jetbrains.php.lang.psi.elements.PhpTypedElement;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
+import org.klesun.deep_assoc_completion.contexts.ClsHierarchyCache;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
 import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.deep_assoc_completion.resolvers.ArrCtorRes;
@@ -33,16 +33,12 @@ public class MemRes {
     public static It<PhpClass> findClsByFqnPart(String clsName, Project proj)
     {
         // allow to omit namespace in php doc class references
-        PhpIndex idx = PhpIndex.getInstance(proj);
         if (clsName.isEmpty()) {
             return It.non();
         } else {
             String clean = clsName.replaceAll("^\\\\", "");
-            return It.cnc(
-                idx.getClassesByName(clean),
-                idx.getInterfacesByName(clean),
-                idx.getInterfacesByName(clean)
-            ).flt(cls -> cls.getFQN().endsWith(clean));
+            return ClsHierarchyCache.inst(proj).getAnyByName(clean).itr()
+                .flt(cls -> cls.getFQN().endsWith(clean));
         }
     }
 
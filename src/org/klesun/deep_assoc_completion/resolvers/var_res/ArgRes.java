@@ -2,6 +2,8 @@ package org.klesun.deep_assoc_completion.resolvers.var_res;
 
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.impl.PhpDocCommentImpl;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.impl.PhpDocRefImpl;
@@ -21,6 +23,9 @@ import org.klesun.deep_assoc_completion.structures.DeepType;
 import org.klesun.deep_assoc_completion.structures.Mkt;
 import org.klesun.lang.*;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class ArgRes extends Lang
 {
     private IExprCtx trace;
@@ -158,16 +163,56 @@ public class ArgRes extends Lang
                 }));
     }
 
+    // [$this, 'doSomething'], [static::class, 'doSomething']
+    private static Opt<String> getSelfCallableName(ArrayCreationExpressionImpl arr)
+    {
+        return som(arr)
+            .flt(a -> a.getChildren().length == 2)
+            .flt(a -> L(a.getChildren()).gat(0)
+                .flt(psi -> psi.getText().equals("$this")
+                        || psi.getText().equals("self::class")
+                        || psi.getText().equals("static::class"))
+                .has())
+            .fop(a -> L(a.getChildren()).gat(1))
+            .map(psi -> psi.getFirstChild())
+            .fop(toCast(StringLiteralExpression.class))
+            .map(str -> str.getContents());
+    }
+
+    /**
+     * method name -> method calls and callable arrays referring to it in the file,
+     * kept till the file is changed, since collecting them requires a full tree
+     * walk, and it was done for each parameter of each private method resolved
+     */
+    private static Map<String, L<PsiElement>> getNameToCallSites(PsiFile file)
+    {
+        return CachedValuesManager.getCachedValue(file, () -> {
+            Map<String, L<PsiElement>> nameToSites = new HashMap<>();
+            PsiTreeUtil.processElements(file, psi -> {
+                Opt<String> nameOpt = Opt.fst(
+                    () -> Tls.cast(MethodReferenceImpl.class, psi)
+                        .fop(call -> opt(call.getName())),
+                    () -> Tls.cast(ArrayCreationExpressionImpl.class, psi)
+                        .fop(arr -> getSelfCallableName(arr))
+                );
+                nameOpt.thn(name -> nameToSites
+                    .computeIfAbsent(name, n -> list()).add(psi));
+                return true;
+            });
+            return CachedValueProvider.Result.create(nameToSites, file);
+        });
+    }
+
     // $result = static::doSomething($args);
     private It<DeepType> getPrivateFuncUsageArg(FunctionImpl func, int argOrderInLambda)
     {
         return Tls.cast(MethodImpl.class, func)
             .flt(a -> func.getParameters().length > 0)
             .fap(meth -> {
-                PsiFile file = func.getContainingFile();
+                L<PsiElement> sites = opt(getNameToCallSites(func.getContainingFile()).get(meth.getName()))
+                    .def(L.non());
                 return It.cnc(
-                    It(PsiTreeUtil.findChildrenOfType(file, MethodReferenceImpl.class))
-                        .flt(call -> meth.getName().equals(call.getName()))
+                    It(sites).cst(MethodReferenceImpl.class)
                         .flt(call -> opt(call.getClassReference()).map(ref -> ref.getText())
                             .flt(txt -> txt.equals("$this") || txt.equals("self") ||
                                         txt.equals("static") || func.equals(call.resolve()))
@@ -175,17 +220,7 @@ public class ArgRes extends Lang
                         .fop(call -> L(call.getParameters()).gat(argOrderInLambda))
                         .fop(toCast(PhpExpression.class))
                         .fap(arg -> trace.subCtxEmpty().findExprType(arg)),
-                    It(PsiTreeUtil.findChildrenOfType(file, ArrayCreationExpressionImpl.class))
-                        .flt(arr -> arr.getChildren().length == 2
-                                && L(arr.getChildren()).gat(0)
-                                    .flt(psi -> psi.getText().equals("$this")
-                                            || psi.getText().equals("self::class")
-                                            || psi.getText().equals("static::class"))
-                                    .has()
-                                && L(arr.getChildren()).gat(1).map(psi -> psi.getFirstChild())
-                                    .fop(toCast(StringLiteralExpression.class))
-                                    .flt(str -> str.getContents().equals(meth.getName()))
-                                    .has())
+                    It(sites).cst(ArrayCreationExpressionImpl.class)
                         .fap(arr -> It.frs(
                             () -> new ArgRes(trace.subCtxEmpty())
                                 .getInlineFuncArg(arr, argOrderInLambda),
@@ -3,8 +3,6 @@ package org.klesun.deep_assoc_completion.resolvers.var_res;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
-import com.intellij.psi.PsiFileFactory;
-import com.jetbrains.php.lang.PhpLanguage;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.PhpDocComment;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.tags.PhpDocParamTag;
 import com.jetbrains.php.lang.documentation.phpdoc.psi.tags.PhpDocTag;
@@ -13,6 +11,7 @@ import com.jetbrains.php.lang.psi.elements.PhpExpression;
 import com.jetbrains.php.lang.psi.elements.Statement;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
+import org.klesun.deep_assoc_completion.contexts.ParsedDocCache;
 import org.klesun.deep_assoc_completion.helpers.Mt;
 import org.klesun.deep_assoc_completion.resolvers.other_plugin_integration.DeepAssocApi;
 import org.klesun.deep_assoc_completion.structures.Build;
@@ -153,11 +152,20 @@ public class DocParamRes extends Lang
         }
     }
 
+    /**
+     * same doc is resolved for each call site and in each search, reusing the
+     * fake file saves the parsing and lets its expressions be taken from type cache
+     */
+    public static PsiFile parseFakeFile(String fileText, Project project, Opt<PsiElement> hostDoc)
+    {
+        return ParsedDocCache.inst(project).parseFakeFile(fileText, hostDoc);
+    }
+
     public static IIt<DeepType> parseExpression(String expr, Project project, IExprCtx docCtx)
     {
         // adding "$arg = " so anonymous functions were parsed as expressions
         expr = EXPR_PREFIX + expr + EXPR_POSTFIX;
-        PsiFile psiFile = PsiFileFactory.getInstance(project).createFileFromText(PhpLanguage.INSTANCE, expr);
+        PsiFile psiFile = parseFakeFile(expr, project, docCtx.getFakeFileSource());
         return opt(psiFile.getFirstChild())
             .cst(GroupStatement.class)
             .map(gr -> gr.getFirstPsiChild())
@@ -209,8 +217,9 @@ public class DocParamRes extends Lang
         );
     }
 
+    /** same for all callers unless doc refers to $this, see SearchCtx::findSummarized() */
     public IIt<DeepType> resolve(PhpDocTag doc)
     {
-        return parseDoc(doc);
+        return ctx.findSummarized(doc, "doc", docCtx -> It(new DocParamRes(docCtx).parseDoc(doc)));
     }
 }
@@ -48,6 +48,12 @@ public class DeepType extends Lang
     public boolean isNumber = false;
     public boolean isExactPsi = true;
     public boolean isNull = false;
+    // built once keys are resolved, see getKeyIndex()
+    private volatile KeyIndex keyIndex = null;
+    private volatile KeyIndex propIndex = null;
+    // see getFingerprint()
+    private Object fingerprint = null;
+    final private static int FINGERPRINT_DEPTH = 3;
 
     public DeepType(@NotNull PsiElement definition, PhpType briefType, String stringValue, boolean isExactPsi)
     {
@@ -280,6 +286,134 @@ public class DeepType extends Lang
         }
     }
 
+    /** @return name -> key map if keys are already resolved, does not trigger resolution */
+    public Opt<KeyIndex> getKeyIndex()
+    {
+        KeyIndex index = keyIndex;
+        if (index == null || index.source != keys) {
+            index = KeyIndex.make(keys).def(null);
+            keyIndex = index;
+        }
+        return opt(index);
+    }
+
+    public Opt<KeyIndex> getPropIndex()
+    {
+        KeyIndex index = propIndex;
+        if (index == null || index.source != props) {
+            index = KeyIndex.make(props).def(null);
+            propIndex = index;
+        }
+        return opt(index);
+    }
+
+    /** @return list of elements if they are known without resolving anything */
+    private static <T> Opt<L<T>> ifResolved(IReusableIt<T> iter)
+    {
+        if (iter instanceof IResolvedIt ||
+            iter instanceof MemIt && ((MemIt<T>)iter).isComplete()
+        ) {
+            return som(iter.arr());
+        } else {
+            return non();
+        }
+    }
+
+    /**
+     * parts that are not resolved yet are compared by identity: if two types share same
+     * not yet iterated keys or values, they will still be equal once those get resolved
+     */
+    private static Object typesFingerprint(IReusableIt<DeepType> types, int depthLeft)
+    {
+        return ifResolved(types)
+            .map(ts -> (Object)typesFingerprint(ts, depthLeft))
+            .def(types);
+    }
+
+    private static Fingerprint typesFingerprint(L<DeepType> types, int depthLeft)
+    {
+        return new Fingerprint(types.map(t -> t.getFingerprint(depthLeft)).arr().toArray());
+    }
+
+    private static Object keysFingerprint(IReusableIt<Key> keys, int depthLeft)
+    {
+        return ifResolved(keys)
+            .map(ks -> (Object)new Fingerprint(ks.map(k -> new Fingerprint(
+                k.comments, k.getBriefTypes(),
+                typesFingerprint(k.keyType.types, depthLeft),
+                new Fingerprint(k.valueTypeGetters.map(g -> g.ifHas()
+                    .map(mt -> (Object)typesFingerprint(mt.types, depthLeft))
+                    .def(g)).arr().toArray())
+            )).arr().toArray()))
+            .def(keys);
+    }
+
+    private Object getFingerprint(int depthLeft)
+    {
+        if (depthLeft <= 0) {
+            return this;
+        }
+        return new Fingerprint(
+            briefType, stringValue, booleanValue, cstName, clsRefType,
+            isNumber, isExactPsi, isNull, ctorArgs, returnTypeGetters,
+            new Fingerprint(generics.map(mt -> typesFingerprint(mt.types, depthLeft - 1)).arr().toArray()),
+            typesFingerprint(pdoFetchTypes, depthLeft - 1), pdoBindVars,
+            keysFingerprint(keys, depthLeft - 1),
+            keysFingerprint(props, depthLeft - 1)
+        );
+    }
+
+    /**
+     * DeepType-s with equal fingerprints are interchangeable: same brief type, string
+     * value, same key names with same values - to remove duplicates that come from
+     * different paths of resolution, like same array through different branches of array_merge
+     *
+     * PSI is not part of it, so if duplicates come from different places, only
+     * one of them will be suggested in Go To Declaration of the key
+     *
+     * only keys already resolved are compared structurally, the rest - by identity, so it does
+     * not trigger any resolution. Calculated once, keys resolved later are not taken into account
+     */
+    public Object getFingerprint()
+    {
+        if (fingerprint == null) {
+            fingerprint = getFingerprint(FINGERPRINT_DEPTH);
+        }
+        return fingerprint;
+    }
+
+    /** parts of a type compared when removing duplicates, hash is calculated once */
+    private static class Fingerprint
+    {
+        final private Object[] parts;
+        final private int hash;
+
+        Fingerprint(Object... parts)
+        {
+            this.parts = parts;
+            this.hash = Arrays.hashCode(parts);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object thatRaw)
+        {
+            if (this == thatRaw) {
+                return true;
+            } else if (!(thatRaw instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint)thatRaw;
+            return this.hash == that.hash
+                && Arrays.equals(this.parts, that.parts);
+        }
+    }
+
     public Mt mt()
     {
         return new Mt(list(this));
@@ -0,0 +1,95 @@
+package org.klesun.deep_assoc_completion.structures;
+
+import org.klesun.lang.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * name -> Key map of a resolved key list, so that getting a key from a config
+ * array with thousands of keys did not require iterating through all of them
+ *
+ * keys with dynamic name (no string value) may match any name, so they are kept
+ * separately and it's up to the caller to decide which of them to include
+ *
+ * positions of keys are kept rather than keys, so that named and dynamic
+ * keys could be returned in same order as they are in the source
+ */
+public class KeyIndex
+{
+    final public IReusableIt<Key> source;
+    // all keys in source order, index maps keep positions in it
+    final private L<Key> keys;
+    final private Map<String, L<Integer>> nameToPositions = new HashMap<>();
+    final private L<Integer> unnamedPositions = list();
+
+    private KeyIndex(IReusableIt<Key> source, L<Key> keys)
+    {
+        this.source = source;
+        this.keys = keys;
+        for (int i = 0; i < keys.size(); ++i) {
+            boolean isUnnamed = false;
+            for (DeepType kt: keys.get(i).keyType.getTypes()) {
+                if (kt.stringValue == null) {
+                    isUnnamed = true;
+                } else {
+                    L<Integer> named = nameToPositions.computeIfAbsent(kt.stringValue, n -> list());
+                    if (named.size() == 0 || named.get(named.size() - 1) != i) {
+                        named.add(i);
+                    }
+                }
+            }
+            if (isUnnamed) {
+                unnamedPositions.add(i);
+            }
+        }
+    }
+
+    /** @return non() if keys are not resolved yet, since building index would resolve them */
+    public static Opt<KeyIndex> make(IReusableIt<Key> keys)
+    {
+        if (keys instanceof IResolvedIt ||
+            keys instanceof MemIt && ((MemIt<Key>)keys).isComplete()
+        ) {
+            return som(new KeyIndex(keys, keys.arr()));
+        } else {
+            return non();
+        }
+    }
+
+    /**
+     * @param unnamedMatches - whether key with dynamic name, like `$arr[$i] = ...`
+     *  or `array<string, int>`, may have this name, since it's up to the caller
+     * @return keys that have this name, in the order they were defined
+     */
+    public L<Key> getMatching(String name, Predicate<Key> unnamedMatches)
+    {
+        L<Integer> named = opt(nameToPositions.get(name)).def(L.non());
+        L<Key> result = list();
+        int i = 0;
+        int j = 0;
+        // both lists are sorted, merging them keeps the source order
+        while (i < named.size() || j < unnamedPositions.size()) {
+            int namedPos = i < named.size() ? named.get(i) : Integer.MAX_VALUE;
+            int unnamedPos = j < unnamedPositions.size() ? unnamedPositions.get(j) : Integer.MAX_VALUE;
+            if (namedPos <= unnamedPos) {
+                result.add(keys.get(namedPos));
+                ++i;
+                if (namedPos == unnamedPos) {
+                    // same key with both static and dynamic name
+                    ++j;
+                }
+            } else {
+                Key key = keys.get(unnamedPos);
+                if (unnamedMatches.test(key)) {
+                    result.add(key);
+                }
+                ++j;
+            }
+        }
+        return result;
+    }
+}
@@ -1,40 +1,115 @@
 package org.klesun.deep_assoc_completion.structures;
 
+import com.intellij.lang.ASTNode;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
 import org.klesun.deep_assoc_completion.contexts.IExprCtx;
-import org.klesun.lang.L;
+import org.klesun.deep_assoc_completion.contexts.FuncCtx;
+import org.klesun.lang.Opt;
 import org.klesun.lang.Tls;
 
-import static org.klesun.lang.Lang.list;
-
 /**
  * defies a uniqueness of a PSI
  * needed because there are PSI created dynamically by us from phpdoc text
+ *
+ * everything is taken from PSI once on creation, so that lookups
+ * in the cache maps did not extract text or build hash lists
  */
 public class PsiSig {
-    final private PsiElement psi;
-    final private IExprCtx ctx;
+    final private static com.intellij.openapi.util.Key<Integer> FAKE_TEXT_HASH =
+        com.intellij.openapi.util.Key.create("deepAssocFakeFileTextHash");
+
+    // the PSI itself if it is real, since offsets of real PSI shift after an
+    // edit above it, the doc comment for PSI parsed from it
+    final private Object anchor;
+    // PSI parsed from doc comment is re-created on each parse, so it is
+    // the text of the fake file and position in it that tell whether
+    // it is same expression, all of them are 0 for real PSI
+    final private int fakeTextHash;
+    final private int offset;
+    final private int length;
+    final private Object elementType;
+    final private Class psiClass;
+    // the call context, or a detached copy of its fields for project cache
+    final private Object func;
+    final private int hash;
 
     public PsiSig(PsiElement psi, IExprCtx ctx) {
-        this.psi = psi;
-        this.ctx = ctx;
+        PsiFile file = psi.getContainingFile();
+        boolean isFake = file != null
+            && file.getContainingDirectory() == null
+            && ctx.getFakeFileSource().has();
+        ASTNode node = isFake ? psi.getNode() : null;
+
+        this.anchor = isFake ? ctx.getFakeFileSource().unw() : psi;
+        this.fakeTextHash = isFake ? getFakeTextHash(file) : 0;
+        this.offset = isFake ? psi.getTextOffset() : 0;
+        this.length = isFake ? psi.getTextLength() : 0;
+        this.elementType = node != null ? node.getElementType() : null;
+        this.psiClass = psi.getClass();
+        this.func = ctx.func();
+
+        this.hash = makeHash();
+    }
+
+    private PsiSig(PsiSig source, Object detachedFunc) {
+        this.anchor = source.anchor;
+        this.fakeTextHash = source.fakeTextHash;
+        this.offset = source.offset;
+        this.length = source.length;
+        this.elementType = source.elementType;
+        this.psiClass = source.psiClass;
+        this.func = detachedFunc;
+        this.hash = makeHash();
+    }
+
+    private int makeHash() {
+        int hash = System.identityHashCode(anchor);
+        hash = 31 * hash + fakeTextHash;
+        hash = 31 * hash + offset;
+        hash = 31 * hash + length;
+        hash = 31 * hash + System.identityHashCode(elementType);
+        hash = 31 * hash + func.hashCode();
+        return hash;
+    }
+
+    /**
+     * same signature, but without references to the search, for the keys of project
+     * cache that outlives it, non() if context should not be shared with other searches
+     */
+    public Opt<PsiSig> detach() {
+        return Tls.cast(FuncCtx.class, func)
+            .fop(ctx -> ctx.getDetachedKey())
+            .map(key -> new PsiSig(this, key));
     }
 
-    private L<Object> getHashValues() {
-        PsiElement realPsi = ctx.getFakeFileSource().def(psi);
-        return list(realPsi, ctx.func());
+    private static int getFakeTextHash(PsiFile file) {
+        Integer cached = file.getUserData(FAKE_TEXT_HASH);
+        if (cached == null) {
+            cached = file.getViewProvider().getContents().toString().hashCode();
+            file.putUserData(FAKE_TEXT_HASH, cached);
+        }
+        return cached;
     }
 
     public int hashCode() {
-        return getHashValues().hashCode();
+        return hash;
     }
 
     public boolean equals(Object thatRaw) {
-        return Tls.cast(PsiSig.class, thatRaw)
-            .any(that ->
-                this.getHashValues().equals(that.getHashValues()) &&
-                this.psi.getTextOffset() == that.psi.getTextOffset() &&
-                this.psi.getClass().equals(that.psi.getClass()) &&
-                this.psi.getText().equals(that.psi.getText()));
+        if (this == thatRaw) {
+            return true;
+        } else if (!(thatRaw instanceof PsiSig)) {
+            return false;
+        }
+        PsiSig that = (PsiSig)thatRaw;
+        return this.hash == that.hash
+            && this.anchor == that.anchor
+            && this.offset == that.offset
+            && this.length == that.length
+            && this.fakeTextHash == that.fakeTextHash
+            && this.elementType == that.elementType
+            && this.psiClass == that.psiClass
+            && this.func.equals(that.func);
     }
 }
@@ -19,6 +19,15 @@ import java.util.Map;
 import static org.klesun.lang.Lang.*;
 
 public class PsalmFuncInfo {
+    // guard against memory overflow, DTO docs may be pretty big
+    final private static int MAX_PARSED_DOCS = 2000;
+    // doc comment text -> its tags, least recently used first
+    final private static Map<String, DocTags> textToTags = new LinkedHashMap<String, DocTags>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, DocTags> eldest) {
+            return size() > MAX_PARSED_DOCS;
+        }
+    };
+
     final public PhpDocComment psi;
     final public L<GenericDef> classGenerics;
     final public L<GenericDef> funcGenerics;
@@ -64,16 +73,38 @@ public class PsalmFuncInfo {
         return L(tags);
     }
 
-    private static L<PsalmDocTag> getPsalmTags(PhpDocComment docComment)
+    /**
+     * same doc is parsed on every resolution of the function or var,
+     * so tags are taken from the cache unless doc text was changed
+     */
+    private static DocTags getDocTags(PhpDocComment docComment)
     {
-        return DocParamRes.getDocCommentText(docComment)
-            .fap(txt -> getRawTags(txt))
+        String text = docComment.getText();
+        synchronized (textToTags) {
+            DocTags cached = textToTags.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        L<RawDocTag> rawTags = DocParamRes.getDocCommentText(docComment)
+            .fap(txt -> getRawTags(txt)).arr();
+        L<PsalmDocTag> psalmTags = rawTags
             .fap(rawTag -> {
                 Opt<T2<IType, String>> parsed = PsalmTypeExprParser.parse(rawTag.textLeft);
                 return parsed.map(t -> t.nme((psalmType, textLeft) ->
                     new PsalmDocTag(rawTag.tagName, psalmType, textLeft)
                 ));
             }).arr();
+        DocTags tags = new DocTags(rawTags, psalmTags);
+        synchronized (textToTags) {
+            textToTags.put(text, tags);
+        }
+        return tags;
+    }
+
+    private static L<PsalmDocTag> getPsalmTags(PhpDocComment docComment)
+    {
+        return getDocTags(docComment).psalmTags;
     }
 
     private static Opt<GenericDef> assertTplTag(RawDocTag tag)
@@ -93,17 +124,14 @@ public class PsalmFuncInfo {
 
     private static L<GenericDef> getGenerics(PhpDocComment docComment)
     {
-        return DocParamRes.getDocCommentText(docComment)
-            .fap(txt -> getRawTags(txt))
+        return getDocTags(docComment).rawTags
             .fap(t -> assertTplTag(t)).arr();
     }
 
     public static PsalmClsInfo parseClsDoc(PhpDocComment doc)
     {
         PsalmClsInfo clsInfo = new PsalmClsInfo();
-        clsInfo.generics = DocParamRes.getDocCommentText(doc)
-            .fap(txt -> getRawTags(txt))
-            .fap(t -> assertTplTag(t)).arr();
+        clsInfo.generics = getGenerics(doc);
         for (PsalmDocTag psalmTag: getPsalmTags(doc)) {
             if (psalmTag.tagName.equals("property") ||
                 psalmTag.tagName.equals("property-read") ||
@@ -230,6 +258,15 @@ public class PsalmFuncInfo {
         }
     }
 
+    private static class DocTags {
+        final public L<RawDocTag> rawTags;
+        final public L<PsalmDocTag> psalmTags;
+        public DocTags(L<RawDocTag> rawTags, L<PsalmDocTag> psalmTags) {
+            this.rawTags = rawTags;
+            this.psalmTags = psalmTags;
+        }
+    }
+
     public static class PsalmClsInfo {
         public L<GenericDef> generics = list();
         public Map<String, PsalmFuncInfo> magicMethods = new LinkedHashMap<>();
@@ -8,7 +8,8 @@ import org.klesun.lang.Tls;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.function.Predicate;
 
 import static org.klesun.lang.Lang.*;
 
@@ -29,12 +30,23 @@ import static org.klesun.lang.Lang.*;
  *         }>
  *     }>
  * $products
+ *
+ * goes through the text char by char, since regex on the text left
+ * took a substring copy and a pattern compilation for every token
  */
 public class PsalmTypeExprParser
 {
+    // guard against memory overflow, DTO shapes may be pretty big
+    final private static int MAX_PARSED_TYPES = 5000;
+    // type text -> parsed type and the text after it, least recently used first
+    final private static Map<String, Opt<T2<IType, String>>> parsedTypes = new LinkedHashMap<String, Opt<T2<IType, String>>>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Opt<T2<IType, String>>> eldest) {
+            return size() > MAX_PARSED_TYPES;
+        }
+    };
+
     final private String text;
     private int offset = 0;
-    private L<String> lastMatch = new L<>();
 
     private PsalmTypeExprParser(String text)
     {
@@ -46,26 +58,91 @@ public class PsalmTypeExprParser
         return Tls.substr(this.text, this.offset);
     }
 
-    private boolean unprefix(String regex)
+    /** same chars as \s in java regex */
+    private static boolean isSpace(char ch)
     {
-        // for simplicity sake, taking a substring for now, but perfectly would
-        // be to work with full string and pass offset to the regex function
-        String textLeft = this.getTextLeft();
-        Opt<L<String>> matchOpt = Tls.regexWithFull(regex + "(.*)", textLeft, Pattern.DOTALL);
-        if (!matchOpt.has()) {
-            return false;
+        return ch == ' ' || ch == '\t' || ch == '\n'
+            || ch == '\u000B' || ch == '\f' || ch == '\r';
+    }
+
+    /** same chars as \w in java regex */
+    private static boolean isWordChar(char ch)
+    {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z'
+            || ch >= '0' && ch <= '9' || ch == '_';
+    }
+
+    private static boolean isDigit(char ch)
+    {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean isIdentStart(char ch)
+    {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z'
+            || ch == '\\' || ch == '_';
+    }
+
+    private static boolean isIdentChar(char ch)
+    {
+        return isIdentStart(ch) || isDigit(ch) || ch == '-';
+    }
+
+    private boolean has(char ch)
+    {
+        return this.offset < this.text.length()
+            && this.text.charAt(this.offset) == ch;
+    }
+
+    private boolean skipSpaces()
+    {
+        int start = this.offset;
+        while (this.offset < this.text.length() && isSpace(this.text.charAt(this.offset))) {
+            ++this.offset;
+        }
+        return this.offset > start;
+    }
+
+    private boolean unprefix(String str)
+    {
+        if (this.text.startsWith(str, this.offset)) {
+            this.offset += str.length();
+            return true;
         } else {
-            L<String> match = matchOpt.unw();
-            // damn java does not allow to match without implicit $ in end of pattern
-            String textLeftNow = match.lst().unw();
-            int shift = textLeft.length() - textLeftNow.length();
-            if (shift < 1) {
-                // could lead to an infinite loop if you have a mistake in some of regexes
-                throw new RuntimeException("Empty pattern match in PSALM parser - /" + regex + "/ on text - " + Tls.substr(textLeft, 0, 20));
-            }
-            this.offset += shift;
-            this.lastMatch = match.sub(0, -1);
+            return false;
+        }
+    }
+
+    /** like `\s*,\s*` regex, does not move if there is no such char */
+    private boolean unprefixPadded(char ch)
+    {
+        int start = this.offset;
+        skipSpaces();
+        if (has(ch)) {
+            ++this.offset;
+            skipSpaces();
             return true;
+        } else {
+            this.offset = start;
+            return false;
+        }
+    }
+
+    private String takeWhile(Predicate<Character> isPart)
+    {
+        int start = this.offset;
+        while (this.offset < this.text.length() && isPart.test(this.text.charAt(this.offset))) {
+            ++this.offset;
+        }
+        return this.text.substring(start, this.offset);
+    }
+
+    private Opt<String> parseIdent()
+    {
+        if (this.offset < this.text.length() && isIdentStart(this.text.charAt(this.offset))) {
+            return som(takeWhile(PsalmTypeExprParser::isIdentChar));
+        } else {
+            return non();
         }
     }
 
@@ -79,7 +156,7 @@ public class PsalmTypeExprParser
             } else {
                 return non();
             }
-        } while (this.unprefix("\\s*,\\s*"));
+        } while (this.unprefixPadded(','));
         return som(types);
     }
 
@@ -120,7 +197,9 @@ public class PsalmTypeExprParser
                     return closed;
                 }
             } else if (ch == '"' || ch == '\'') {
+                ++this.offset;
                 parseString(ch);
+                --this.offset;
             }
         }
         String closed = Tls.substr(this.text, start);
@@ -128,32 +207,76 @@ public class PsalmTypeExprParser
         return closed;
     }
 
+    /** `someKey?: ` or `'some key': ` */
+    private Opt<String> parseKeyName()
+    {
+        int start = this.offset;
+        skipSpaces();
+        Opt<String> keyName;
+        if (has('\'') || has('"')) {
+            char quote = this.text.charAt(this.offset);
+            ++this.offset;
+            keyName = parseString(quote);
+        } else {
+            keyName = som(takeWhile(PsalmTypeExprParser::isWordChar))
+                .flt(name -> name.length() > 0);
+        }
+        unprefix("?");
+        skipSpaces();
+        if (keyName.has() && unprefix(":")) {
+            skipSpaces();
+            return keyName;
+        } else {
+            this.offset = start;
+            return non();
+        }
+    }
+
+    /** `// some comment\n` following the key */
+    private Opt<String> parseKeyComment()
+    {
+        int start = this.offset;
+        skipSpaces();
+        int lineEnd = this.text.indexOf('\n', this.offset);
+        if (!unprefix("//") || lineEnd < 0) {
+            this.offset = start;
+            return non();
+        }
+        skipSpaces();
+        String comment = Tls.substr(this.text, Math.min(this.offset, lineEnd), lineEnd).trim();
+        this.offset = lineEnd;
+        skipSpaces();
+        return som(comment);
+    }
+
     private Opt<TAssoc> parseAssocKeys()
     {
         LinkedHashMap<String, IType> keys = new LinkedHashMap<>();
         LinkedHashMap<String, List<String>> keyToComments = new LinkedHashMap<>();
-        while (this.unprefix("\\s*(\\w+)(\\??)\\s*:\\s*")) {
-            String keyName = this.lastMatch.get(1);
-            Boolean isOptional = this.lastMatch.get(2).equals("?");
+        Opt<String> keyNameOpt;
+        while ((keyNameOpt = parseKeyName()).has()) {
+            String keyName = keyNameOpt.unw();
             Opt<? extends IType> typeOpt = parseMultiValue();
             if (typeOpt.has()) {
                 keys.put(keyName, typeOpt.unw());
-                if (!unprefix("\\s*\\,\\s*")) {
+                if (!unprefixPadded(',')) {
                     break; // end of array, since no coma
                 }
-                while (this.unprefix("\\s*\\/\\/\\s*(.*?)\\s*\\n\\s*")) {
-                    String comment = lastMatch.get(1);
+                Opt<String> commentOpt;
+                while ((commentOpt = parseKeyComment()).has()) {
                     if (!keyToComments.containsKey(keyName)) {
                         keyToComments.put(keyName, new ArrayList<>());
                     }
-                    keyToComments.get(keyName).add(comment);
+                    keyToComments.get(keyName).add(commentOpt.unw());
                 }
             } else {
                 break;
             }
         }
-        unprefix(",\\s*"); // optional trailing coma
-        if (unprefix("\\s*}\\s*")) {
+        if (unprefix(",")) { // optional trailing coma
+            skipSpaces();
+        }
+        if (unprefixPadded('}')) {
             return som(new TAssoc(keys, keyToComments, ""));
         } else {
             String unparsed = skipTillClosed('{', '}');
@@ -161,6 +284,19 @@ public class PsalmTypeExprParser
         }
     }
 
+    /** `): ` */
+    private boolean parseFuncReturnColon()
+    {
+        int start = this.offset;
+        if (unprefixPadded(')') && unprefix(":")) {
+            skipSpaces();
+            return true;
+        } else {
+            this.offset = start;
+            return false;
+        }
+    }
+
     private Opt<TFunc> parseFunc()
     {
         ArrayList<TFunc.Param> params = new ArrayList<>();
@@ -171,70 +307,92 @@ public class PsalmTypeExprParser
             }
             IType type = typeOpt.unw();
 
-            boolean isOptional = this.unprefix("\\=");
-            boolean isSpread = this.unprefix("\\.\\.\\.");
+            boolean isOptional = this.unprefix("=");
+            boolean isSpread = this.unprefix("...");
 
             params.add(new TFunc.Param(type, isOptional, isSpread));
-        } while (this.unprefix("\\s*,\\s*"));
+        } while (this.unprefixPadded(','));
 
-        if (!this.unprefix("\\s*\\)\\s*:\\s*")) {
+        if (!parseFuncReturnColon()) {
             return non();
         }
         return parseMultiValue()
             .map(returnType -> new TFunc(params, returnType));
     }
 
-    private Opt<? extends IType> parseSingleValue()
+    /** `array[][]` - traditional phpdoc format for array of type */
+    private int parseArrBrackets()
     {
-        this.unprefix("\\s+");
-        // a comment, just ignore for now
-        this.unprefix("\\/\\/.*\\n");
-        boolean isNullable = this.unprefix("\\?");
-        Opt<? extends IType> parsed = non();
-        if (this.unprefix("([a-zA-Z\\\\_][a-zA-Z\\\\_0-9\\-]*)\\s*<\\s*")) {
-            String fqn = this.lastMatch.get(1);
-            parsed = parseTypeList()
+        int start = this.offset;
+        skipSpaces();
+        int depth = 0;
+        while (unprefix("[]")) {
+            ++depth;
+        }
+        if (depth > 0) {
+            skipSpaces();
+        } else {
+            this.offset = start;
+        }
+        return depth;
+    }
+
+    private Opt<? extends IType> parseIdentValue(String fqn)
+    {
+        int afterIdent = this.offset;
+        int arrDepth;
+        if (unprefixPadded('<')) {
+            return parseTypeList()
                 .map(generics -> new TClass(fqn, generics))
-                .flt(t -> unprefix("\\s*>\\s*"));
-        } else if (this.unprefix("([a-zA-Z\\\\_][a-zA-Z\\\\_0-9\\-]*)\\s*((?:\\[\\])+)\\s*")) {
-            // traditional phpdoc format for array of type
-            String fqn = this.lastMatch.get(1);
-            String bracketsStr = this.lastMatch.get(2);
+                .flt(t -> unprefixPadded('>'));
+        } else if ((arrDepth = parseArrBrackets()) > 0) {
             IType wrappedType = new TClass(fqn, L.non());
-            for (int i = 0; i < bracketsStr.length() / 2; ++i) {
+            for (int i = 0; i < arrDepth; ++i) {
                 wrappedType = new TClass("array", list(wrappedType));
             }
-            parsed = som(wrappedType);
-        } else if (this.unprefix("array\\s*\\{\\s*")) {
-            parsed = parseAssocKeys();
-        } else if (this.unprefix("\\\\?(?:callable|Closure)\\s*\\(\\s*")) {
-            parsed = parseFunc();
-        } else if (this.unprefix("([a-zA-Z\\\\_][a-zA-Z\\\\_0-9\\-]*)\\s*")) {
-            // should be put after SomeClass::class check when it is implemented
-            String fqn = this.lastMatch.get(1);
-            parsed = som(new TClass(fqn, new ArrayList<>()));
-        } else if (this.unprefix("(\\d+\\.\\+d+)")) {
-            String value = this.lastMatch.get(1);
-            parsed = som(new TPrimitive(PhpType.FLOAT, value));
-        } else if (this.unprefix("(\\d+)")) {
-            String value = this.lastMatch.get(1);
-            parsed = som(new TPrimitive(PhpType.INT, value));
-        } else if (this.unprefix("true\\b")) {
-            parsed = som(new TPrimitive(PhpType.TRUE, "1"));
-        } else if (this.unprefix("false\\b")) {
-            parsed = som(new TPrimitive(PhpType.FALSE, ""));
-        } else if (this.unprefix("null\\b")) {
-            parsed = som(new TPrimitive(PhpType.NULL, ""));
-        } else if (this.unprefix("['\"]")) {
-            char quote = this.lastMatch.get(0).charAt(0);
+            return som(wrappedType);
+        } else if (fqn.equals("array") && unprefixPadded('{')) {
+            return parseAssocKeys();
+        } else if (list("callable", "Closure", "\\callable", "\\Closure").contains(fqn) && unprefixPadded('(')) {
+            return parseFunc();
+        } else {
+            this.offset = afterIdent;
+            skipSpaces();
+            return som(new TClass(fqn, new ArrayList<>()));
+        }
+    }
+
+    private Opt<? extends IType> parseSingleValue()
+    {
+        skipSpaces();
+        if (unprefix("//")) {
+            // a comment, just ignore for now
+            int lineEnd = this.text.indexOf('\n', this.offset);
+            this.offset = lineEnd < 0 ? this.offset - 2 : lineEnd + 1;
+        }
+        boolean isNullable = this.unprefix("?");
+        Opt<? extends IType> parsed = non();
+        Opt<String> identOpt = parseIdent();
+        if (identOpt.has()) {
+            parsed = parseIdentValue(identOpt.unw());
+        } else if (this.offset < this.text.length() && isDigit(this.text.charAt(this.offset))) {
+            String value = takeWhile(PsalmTypeExprParser::isDigit);
+            int beforeDot = this.offset;
+            if (unprefix(".") && this.offset < this.text.length() && isDigit(this.text.charAt(this.offset))) {
+                value += "." + takeWhile(PsalmTypeExprParser::isDigit);
+                parsed = som(new TPrimitive(PhpType.FLOAT, value));
+            } else {
+                this.offset = beforeDot;
+                parsed = som(new TPrimitive(PhpType.INT, value));
+            }
+        } else if (has('\'') || has('"')) {
+            char quote = this.text.charAt(this.offset);
+            ++this.offset;
             parsed = parseString(quote).map(value ->
                 new TPrimitive(PhpType.STRING, value));
         } else {
             // TODO: support class constants, value-of<T>, key-of<T>
         }
-        if (!parsed.has()) {
-            //System.out.println("failed to parse psalm value - " + Tls.substr(getTextLeft(), 0, 20));
-        }
         if (isNullable) {
             IType nullt = new TPrimitive(PhpType.NULL, "");
             parsed = parsed.map(type -> new TMulti(list(nullt, type)));
@@ -246,7 +404,7 @@ public class PsalmTypeExprParser
     {
         return parseSingleValue().map(first -> {
             ArrayList<IType> following = new ArrayList<>();
-            while (this.unprefix("\\s*\\|\\s*")) {
+            while (this.unprefixPadded('|')) {
                 Opt<? extends IType> next = parseSingleValue();
                 if (next.has()) {
                     following.add(next.unw());
@@ -263,10 +421,24 @@ public class PsalmTypeExprParser
         });
     }
 
+    /**
+     * parsed types are shared between all callers, so they
+     * should not be modified, same as the Opt and T2 holding them
+     */
     public static Opt<T2<IType, String>> parse(String typeText)
     {
+        synchronized (parsedTypes) {
+            Opt<T2<IType, String>> cached = parsedTypes.get(typeText);
+            if (cached != null) {
+                return cached;
+            }
+        }
         PsalmTypeExprParser self = new PsalmTypeExprParser(typeText);
-        return self.parseMultiValue()
+        Opt<T2<IType, String>> parsed = self.parseMultiValue()
             .map(t -> T2(t, self.getTextLeft()));
+        synchronized (parsedTypes) {
+            parsedTypes.put(typeText, parsed);
+        }
+        return parsed;
     }
 }
@@ -0,0 +1,46 @@
+package org.klesun.deep_assoc_completion.structures.psalm;
+
+import org.klesun.lang.It;
+import org.klesun.lang.L;
+import org.klesun.lang.testing.CaseContext;
+import org.klesun.lang.testing.Error;
+import org.klesun.lang.testing.Logger;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * input/output checks of the psalm type parser, they do not need
+ * PHP code of the project, so they are run by RunTest along with it
+ */
+public class PsalmTypeExprParserTest
+{
+    // type text -> parsed type printed back, text left after the type
+    private static L<T3<String, String, String>> provideCases()
+    {
+        return list(
+            // nested generics
+            T3("array<string, array<int, list<\\App\\User>>>", "array<string, array<int, list<\\App\\User>>>", ""),
+            T3("\\Generator<int, array{id: int, tags: list<string>}> $rows", "\\Generator<int, array{id: int, tags: list<string>}>", "$rows"),
+            T3("array{a: array{b?: array{c: int|null}}}", "array{a: array{b: array{c: int|null}}}", ""),
+            // quoted keys
+            T3("array{'first name': string, \"age\": int}", "array{first name: string, age: int}", ""),
+            T3("array{'it\\'s': bool, 'a:b'?: float}", "array{it's: bool, a:b: float}", ""),
+            // unclosed braces, keys parsed so far are kept
+            T3("array{id: int, name: string", "array{id: int, name: string}", ""),
+            T3("array{id: int, rows: array<array{a: int", "array{id: int}", "")
+        );
+    }
+
+    public static It<Error> run(Logger logger)
+    {
+        return provideCases().fap((tuple, i) -> tuple.nme((text, expected, expectedLeft) -> {
+            CaseContext ctx = new CaseContext(logger);
+            ctx.dataProviderName = "PsalmTypeExprParserTest";
+            ctx.testNumber = i;
+            L<String> actual = PsalmTypeExprParser.parse(text)
+                .map(parsed -> list(parsed.a + "", "left: " + parsed.b))
+                .def(list());
+            return ctx.testCaseExact(It(actual), list(expected, "left: " + expectedLeft));
+        }));
+    }
+}
@@ -0,0 +1,168 @@
+package org.klesun.deep_assoc_completion.structures.sql;
+
+import org.klesun.lang.Opt;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * splits SQL text into words, quoted names, literals and punctuation one
+ * token at a time, skipping whitespace and comments, so that parser did
+ * not have to care about commas inside strings or `-- comments`
+ */
+public class SqlLexer
+{
+    // words that can not be an alias, written without AS
+    final private static Set<String> KEYWORDS = new HashSet<>(list(
+        "SELECT", "FROM", "WHERE", "GROUP", "HAVING", "ORDER", "LIMIT", "OFFSET",
+        "UNION", "EXCEPT", "INTERSECT", "WINDOW", "FOR", "INTO", "LOCK", "RETURNING",
+        "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "OUTER", "CROSS", "NATURAL", "STRAIGHT_JOIN",
+        "ON", "USING", "USE", "FORCE", "IGNORE", "AS", "WITH",
+        "AND", "OR", "XOR", "NOT", "IS", "IN", "LIKE", "BETWEEN", "REGEXP",
+        "CASE", "WHEN", "THEN", "ELSE", "END", "NULL", "TRUE", "FALSE",
+        "DISTINCT", "ALL", "ASC", "DESC", "INTERVAL",
+        "SECOND", "MINUTE", "HOUR", "DAY", "WEEK", "MONTH", "QUARTER", "YEAR"
+    ));
+
+    public static class Token
+    {
+        // 'w' - word, 'q' - `quoted` name, 's' - 'string', 'n' - number, 'p' - punctuation
+        final public char kind;
+        // without quotes for strings and quoted names
+        final public String text;
+        final public int start;
+        final public int end;
+
+        Token(char kind, String text, int start, int end)
+        {
+            this.kind = kind;
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        public boolean isWord(String word)
+        {
+            return kind == 'w' && text.equalsIgnoreCase(word);
+        }
+
+        public boolean isPunct(char ch)
+        {
+            return kind == 'p' && text.charAt(0) == ch;
+        }
+
+        public boolean isKeyword()
+        {
+            return kind == 'w' && KEYWORDS.contains(text.toUpperCase());
+        }
+
+        /** table, column or alias */
+        public boolean isName()
+        {
+            return kind == 'q' || kind == 'w' && !isKeyword();
+        }
+
+        @Override
+        public String toString()
+        {
+            return kind + ":" + text;
+        }
+    }
+
+    final private String sql;
+    private int offset = 0;
+
+    public SqlLexer(String sql)
+    {
+        this.sql = sql;
+    }
+
+    private static boolean isWordChar(char ch)
+    {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+    }
+
+    private boolean has(String str)
+    {
+        return this.sql.startsWith(str, this.offset);
+    }
+
+    private void skipTill(String end)
+    {
+        int endPos = this.sql.indexOf(end, this.offset);
+        this.offset = endPos < 0 ? this.sql.length() : endPos + end.length();
+    }
+
+    private void skipSpacesAndComments()
+    {
+        while (this.offset < this.sql.length()) {
+            char ch = this.sql.charAt(this.offset);
+            if (Character.isWhitespace(ch)) {
+                ++this.offset;
+            } else if (has("--") || ch == '#') {
+                skipTill("\n");
+            } else if (has("/*")) {
+                this.offset += 2;
+                skipTill("*/");
+            } else {
+                break;
+            }
+        }
+    }
+
+    /** `'it''s'`, `"it\"s"` or `` `my col` `` */
+    private String readQuoted(char quote)
+    {
+        StringBuilder result = new StringBuilder();
+        ++this.offset;
+        while (this.offset < this.sql.length()) {
+            char ch = this.sql.charAt(this.offset++);
+            if (ch == '\\' && quote != '`' && this.offset < this.sql.length()) {
+                result.append(this.sql.charAt(this.offset++));
+            } else if (ch != quote) {
+                result.append(ch);
+            } else if (this.offset < this.sql.length() && this.sql.charAt(this.offset) == quote) {
+                // doubled quote is an escaped quote
+                result.append(ch);
+                ++this.offset;
+            } else {
+                break;
+            }
+        }
+        return result.toString();
+    }
+
+    /** @return non() when end of SQL is reached */
+    public Opt<Token> next()
+    {
+        skipSpacesAndComments();
+        if (this.offset >= this.sql.length()) {
+            return non();
+        }
+        int start = this.offset;
+        char ch = this.sql.charAt(start);
+        if (ch == '\'' || ch == '"' || ch == '`') {
+            String text = readQuoted(ch);
+            char kind = ch == '\'' ? 's' : 'q';
+            return som(new Token(kind, text, start, this.offset));
+        } else if (Character.isDigit(ch)) {
+            while (this.offset < this.sql.length() && (
+                Character.isDigit(this.sql.charAt(this.offset)) ||
+                this.sql.charAt(this.offset) == '.'
+            )) {
+                ++this.offset;
+            }
+            return som(new Token('n', this.sql.substring(start, this.offset), start, this.offset));
+        } else if (isWordChar(ch)) {
+            while (this.offset < this.sql.length() && isWordChar(this.sql.charAt(this.offset))) {
+                ++this.offset;
+            }
+            return som(new Token('w', this.sql.substring(start, this.offset), start, this.offset));
+        } else {
+            ++this.offset;
+            return som(new Token('p', ch + "", start, this.offset));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.klesun.deep_assoc_completion.structures.sql;
+
+import org.klesun.lang.L;
+import org.klesun.lang.Opt;
+
+/**
+ * SELECT list and FROM tables of a parsed query, enough
+ * to tell which keys will be in the fetched row
+ */
+public class SqlSelect
+{
+    final public L<Column> columns;
+    final public L<TableRef> tables;
+
+    public SqlSelect(L<Column> columns, L<TableRef> tables)
+    {
+        this.columns = columns;
+        this.tables = tables;
+    }
+
+    /** @return tables `*` or `alias.*` takes columns from */
+    public L<TableRef> getStarTables(Column star)
+    {
+        return tables.flt(t -> star.starOf.all(qualifier ->
+            qualifier.equalsIgnoreCase(t.alias) ||
+            qualifier.equalsIgnoreCase(t.name)
+        )).arr();
+    }
+
+    /** `name`, `expr AS name`, `*` or `alias.*` */
+    public static class Column
+    {
+        final public String name;
+        final public boolean isStar;
+        // table or alias of `alias.*`, non() for `*`
+        final public Opt<String> starOf;
+
+        Column(String name, boolean isStar, Opt<String> starOf)
+        {
+            this.name = name;
+            this.isStar = isStar;
+            this.starOf = starOf;
+        }
+    }
+
+    /** `users u`, `(SELECT ...) AS sub` or a WITH table */
+    public static class TableRef
+    {
+        // without schema, empty for a subquery
+        final public String name;
+        final public String alias;
+        // present for a subquery or a WITH table
+        final public Opt<SqlSelect> subquery;
+
+        TableRef(String name, String alias, Opt<SqlSelect> subquery)
+        {
+            this.name = name;
+            this.alias = alias;
+            this.subquery = subquery;
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package org.klesun.deep_assoc_completion.structures.sql;
+
+import org.klesun.deep_assoc_completion.structures.sql.SqlLexer.Token;
+import org.klesun.deep_assoc_completion.structures.sql.SqlSelect.Column;
+import org.klesun.deep_assoc_completion.structures.sql.SqlSelect.TableRef;
+import org.klesun.lang.L;
+import org.klesun.lang.Opt;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * parses columns and tables of a SELECT query passed to PDO or mysqli,
+ * supports joins, table aliases, subqueries in FROM, WITH tables,
+ * DISTINCT and functions with commas inside, like:
+ *
+ * WITH active AS (SELECT id, name FROM users WHERE active = 1)
+ * SELECT DISTINCT a.*, o.id AS order_id, COALESCE(o.note, '') note
+ * FROM active a
+ * LEFT JOIN orders o ON o.user_id = a.id
+ *
+ * the rest of the query is skipped without checking its syntax
+ */
+public class SqlSelectParser
+{
+    // guard against memory overflow, each entry holds a few lists
+    final private static int MAX_PARSED_SQLS = 2000;
+    // SQL text -> parsed query, least recently used first
+    final private static Map<String, Opt<SqlSelect>> parsedSqls = new LinkedHashMap<String, Opt<SqlSelect>>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Opt<SqlSelect>> eldest) {
+            return size() > MAX_PARSED_SQLS;
+        }
+    };
+
+    // words that end the SELECT list or the FROM clause
+    final private static Set<String> CLAUSE_ENDS = new HashSet<>(list(
+        "FROM", "WHERE", "GROUP", "HAVING", "ORDER", "LIMIT", "UNION", "EXCEPT",
+        "INTERSECT", "WINDOW", "FOR", "INTO", "LOCK", "RETURNING"
+    ));
+    final private static Set<String> JOIN_WORDS = new HashSet<>(list(
+        "JOIN", "INNER", "LEFT", "RIGHT", "FULL", "OUTER", "CROSS", "NATURAL", "STRAIGHT_JOIN"
+    ));
+    final private static Set<String> TABLE_LIST_ENDS = new HashSet<>(list(CLAUSE_ENDS, JOIN_WORDS).fap(ws -> ws).arr());
+    final private static Set<String> SELECT_MODIFIERS = new HashSet<>(list(
+        "DISTINCT", "ALL", "DISTINCTROW", "HIGH_PRIORITY", "STRAIGHT_JOIN",
+        "SQL_SMALL_RESULT", "SQL_BIG_RESULT", "SQL_BUFFER_RESULT",
+        "SQL_CACHE", "SQL_NO_CACHE", "SQL_CALC_FOUND_ROWS"
+    ));
+
+    final private String sql;
+    final private SqlLexer lexer;
+    // tokens are taken from lexer only when parser gets to them
+    final private L<Token> tokens = list();
+    private boolean lexerDone = false;
+    private int pos = 0;
+
+    private SqlSelectParser(String sql)
+    {
+        this.sql = sql;
+        this.lexer = new SqlLexer(sql);
+    }
+
+    private static boolean isIn(Set<String> words, Token token)
+    {
+        return token.kind == 'w' && words.contains(token.text.toUpperCase());
+    }
+
+    private Opt<Token> at(int index)
+    {
+        while (!lexerDone && tokens.size() <= index) {
+            Opt<Token> next = lexer.next();
+            if (next.has()) {
+                tokens.add(next.unw());
+            } else {
+                lexerDone = true;
+            }
+        }
+        return tokens.gat(index);
+    }
+
+    private Opt<Token> peek()
+    {
+        return at(pos);
+    }
+
+    private boolean unprefixWord(String word)
+    {
+        if (peek().any(t -> t.isWord(word))) {
+            ++pos;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private boolean unprefixPunct(char ch)
+    {
+        if (peek().any(t -> t.isPunct(ch))) {
+            ++pos;
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    /** moves past the `)` closing the already entered parentheses */
+    private void skipTillClosed()
+    {
+        int depth = 0;
+        for (Opt<Token> tokOpt; (tokOpt = peek()).has(); ++pos) {
+            Token tok = tokOpt.unw();
+            if (tok.isPunct('(')) {
+                ++depth;
+            } else if (tok.isPunct(')')) {
+                if (depth == 0) {
+                    ++pos;
+                    return;
+                }
+                --depth;
+            }
+        }
+    }
+
+    /** tokens till the comma or end of the clause, not counting the ones in parentheses */
+    private L<Token> takeListItem(Set<String> ends)
+    {
+        L<Token> item = list();
+        int depth = 0;
+        for (Opt<Token> tokOpt; (tokOpt = peek()).has(); ++pos) {
+            Token tok = tokOpt.unw();
+            if (depth == 0 && (
+                tok.isPunct(',') || tok.isPunct(')') ||
+                tok.isPunct(';') || isIn(ends, tok)
+            )) {
+                break;
+            } else if (tok.isPunct('(')) {
+                ++depth;
+            } else if (tok.isPunct(')')) {
+                --depth;
+            }
+            item.add(tok);
+        }
+        return item;
+    }
+
+    /** `col`, `t.col` or `db.t.col`, any word after a dot is a name, like `r.year` */
+    private boolean isDottedName(L<Token> toks)
+    {
+        return toks.size() % 2 == 1 && toks.all((tok, i) ->
+            i == 0 ? tok.isName() :
+            i % 2 == 0 ? tok.kind == 'w' || tok.kind == 'q' :
+            tok.isPunct('.'));
+    }
+
+    /** MySQL names the column by its value or expression text when there is no alias */
+    private Opt<Column> makeColumn(L<Token> toks)
+    {
+        int n = toks.size();
+        if (n == 0) {
+            return non();
+        }
+        Token last = toks.get(n - 1);
+        Opt<Token> prev = n >= 2 ? som(toks.get(n - 2)) : non();
+        if (prev.any(p -> p.isWord("AS"))) {
+            return som(new Column(last.text, false, non()));
+        } else if (n == 1 && last.isPunct('*')) {
+            return som(new Column("*", true, non()));
+        } else if (n >= 3 && last.isPunct('*') && toks.get(n - 2).isPunct('.')) {
+            return som(new Column("*", true, som(toks.get(n - 3).text)));
+        } else if (isDottedName(toks)) {
+            return som(new Column(last.text, false, non()));
+        } else if (last.isName() && prev.any(p -> p.isPunct(')') || p.isName() || p.isWord("END") || p.kind == 's' || p.kind == 'n')) {
+            // alias without AS, like `COUNT(*) cnt` or `CASE ... END flag`
+            return som(new Column(last.text, false, non()));
+        } else if (n == 1 && last.kind == 's') {
+            return som(new Column(last.text, false, non()));
+        } else {
+            String exprText = sql.substring(toks.get(0).start, last.end);
+            return som(new Column(exprText, false, non()));
+        }
+    }
+
+    private L<Column> parseColumns()
+    {
+        L<Column> columns = list();
+        do {
+            makeColumn(takeListItem(CLAUSE_ENDS)).thn(columns::add);
+        } while (unprefixPunct(','));
+        return columns;
+    }
+
+    private Opt<String> parseAlias()
+    {
+        if (unprefixWord("AS")) {
+            return peek().flt(t -> t.isName() || t.kind == 's')
+                .thn(t -> ++pos).map(t -> t.text);
+        } else {
+            return peek().flt(t -> t.isName())
+                .thn(t -> ++pos).map(t -> t.text);
+        }
+    }
+
+    /** `(SELECT ...)`, cursor should be after the `(` */
+    private Opt<SqlSelect> parseSubquery(Map<String, SqlSelect> withTables)
+    {
+        Opt<SqlSelect> parsed = parseQuery(new HashMap<>(withTables));
+        skipTillClosed();
+        return parsed;
+    }
+
+    /** `db.users u`, `users AS u` or `(SELECT ...) sub` */
+    private Opt<TableRef> parseTableRef(Map<String, SqlSelect> withTables)
+    {
+        if (unprefixPunct('(')) {
+            boolean isSubquery = peek().any(t -> t.isWord("SELECT") || t.isWord("WITH"));
+            if (!isSubquery) {
+                // parenthesized join, not worth supporting
+                skipTillClosed();
+                return non();
+            }
+            Opt<SqlSelect> sub = parseSubquery(withTables);
+            String alias = parseAlias().def("");
+            return som(new TableRef("", alias, sub));
+        }
+        L<Token> nameParts = list();
+        while (peek().any(t -> t.isName())) {
+            nameParts.add(peek().unw());
+            ++pos;
+            if (!unprefixPunct('.')) {
+                break;
+            }
+        }
+        return nameParts.lst().map(t -> t.text).map(name -> {
+            String alias = parseAlias().def(name);
+            Opt<SqlSelect> withTable = opt(withTables.get(name.toLowerCase()));
+            return new TableRef(name, alias, withTable);
+        });
+    }
+
+    private L<TableRef> parseTables(Map<String, SqlSelect> withTables)
+    {
+        L<TableRef> tables = list();
+        while (true) {
+            parseTableRef(withTables).thn(tables::add);
+            // skip ON conditions, USING and index hints
+            takeListItem(TABLE_LIST_ENDS);
+            if (!peek().any(t -> t.isPunct(',') || isIn(JOIN_WORDS, t))) {
+                break;
+            }
+            while (peek().any(t -> t.isPunct(',') || isIn(JOIN_WORDS, t))) {
+                ++pos;
+            }
+        }
+        return tables;
+    }
+
+    /** `WITH [RECURSIVE] name [(cols)] AS (SELECT ...), ...` */
+    private void parseWithTables(Map<String, SqlSelect> withTables)
+    {
+        unprefixWord("RECURSIVE");
+        do {
+            Opt<String> nameOpt = peek().flt(t -> t.isName()).map(t -> t.text);
+            if (!nameOpt.has()) {
+                return;
+            }
+            ++pos;
+            if (unprefixPunct('(')) {
+                skipTillClosed();
+            }
+            if (!unprefixWord("AS") || !unprefixPunct('(')) {
+                return;
+            }
+            parseSubquery(withTables)
+                .thn(sub -> withTables.put(nameOpt.unw().toLowerCase(), sub));
+        } while (unprefixPunct(','));
+    }
+
+    private Opt<SqlSelect> parseQuery(Map<String, SqlSelect> withTables)
+    {
+        if (unprefixWord("WITH")) {
+            parseWithTables(withTables);
+        }
+        while (peek().any(t -> t.isPunct('('))) {
+            ++pos; // `(SELECT ...) UNION (SELECT ...)`
+        }
+        if (!unprefixWord("SELECT")) {
+            return non();
+        }
+        while (peek().any(t -> isIn(SELECT_MODIFIERS, t))) {
+            ++pos;
+        }
+        L<Column> columns = parseColumns();
+        L<TableRef> tables = unprefixWord("FROM")
+            ? parseTables(withTables)
+            : list(); // partial SQL without FROM
+        return som(new SqlSelect(columns, tables));
+    }
+
+    /** parsed queries are shared between all callers, so they should not be modified */
+    public static Opt<SqlSelect> parse(String sql)
+    {
+        synchronized (parsedSqls) {
+            Opt<SqlSelect> cached = parsedSqls.get(sql);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Opt<SqlSelect> parsed = new SqlSelectParser(sql).parseQuery(new HashMap<>());
+        synchronized (parsedSqls) {
+            parsedSqls.put(sql, parsed);
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,62 @@
+package org.klesun.deep_assoc_completion.structures.sql;
+
+import org.klesun.lang.It;
+import org.klesun.lang.L;
+import org.klesun.lang.testing.CaseContext;
+import org.klesun.lang.testing.Error;
+import org.klesun.lang.testing.Logger;
+
+import static org.klesun.lang.Lang.*;
+
+/**
+ * input/output checks of the SELECT parser, they do not need PHP
+ * code of the project, so they are run by RunTest along with it
+ */
+public class SqlSelectParserTest
+{
+    // query -> its columns and tables, like parsed ones are printed in describe()
+    private static L<T2<String, L<String>>> provideCases()
+    {
+        return list(
+            // WITH table
+            T2("WITH active AS (SELECT id, name FROM users WHERE active = 1) " +
+                "SELECT a.*, o.id AS order_id FROM active a LEFT JOIN orders o ON o.user_id = a.id",
+                list("col a.*", "col order_id", "table active a (id, name)", "table orders o")),
+            // subquery in FROM
+            T2("SELECT sub.total, sub.cnt FROM (SELECT SUM(price) AS total, COUNT(*) cnt FROM orders) AS sub",
+                list("col total", "col cnt", "table  sub (total, cnt)")),
+            // `t.*` of a joined table
+            T2("SELECT u.*, p.title FROM users u JOIN posts p ON p.user_id = u.id",
+                list("col u.*", "col title", "table users u", "table posts p")),
+            // CASE alias, with and without AS
+            T2("SELECT CASE WHEN a > 1 THEN 'x' ELSE 'y' END AS kind, CASE WHEN b THEN 1 END status FROM t",
+                list("col kind", "col status", "table t t")),
+            // keyword as a column name after a dot
+            T2("SELECT t.`date`, t.year, t.`order` FROM t",
+                list("col date", "col year", "col order", "table t t"))
+        );
+    }
+
+    private static L<String> describe(SqlSelect select)
+    {
+        L<String> columns = select.columns.map(col -> col.isStar
+            ? "col " + col.starOf.map(tbl -> tbl + ".").def("") + "*"
+            : "col " + col.name).arr();
+        L<String> tables = select.tables.map(tbl -> "table " + tbl.name + " " + tbl.alias
+            + tbl.subquery.map(sub -> " (" + sub.columns.map(col -> col.name).str(", ") + ")").def("")).arr();
+        return It.cnc(columns, tables).arr();
+    }
+
+    public static It<Error> run(Logger logger)
+    {
+        return provideCases().fap((tuple, i) -> tuple.nme((sql, expected) -> {
+            CaseContext ctx = new CaseContext(logger);
+            ctx.dataProviderName = "SqlSelectParserTest";
+            ctx.testNumber = i;
+            L<String> actual = SqlSelectParser.parse(sql)
+                .map(SqlSelectParserTest::describe)
+                .def(list());
+            return ctx.testCaseExact(It(actual), expected);
+        }));
+    }
+}
@@ -12,56 +12,161 @@ import static org.klesun.lang.Lang.It;
 public class MemIt<A> implements IReusableIt<A>
 {
     final private Node head = new Node(null); // first value will be skipped
-    final private Lang.S<Iterator<A>> sourceBle;
+    // both dropped once source is iterated till the end, so that
+    // complete iterator did not keep what source refers to
+    private Iterable<A> sourceBle;
+    private Iterator<A> source = null;
+    private volatile boolean complete = false;
+    // how many parallel searches current thread is inside of, see threadSafeIn()
+    final private static ThreadLocal<int[]> threadSafeDepth = ThreadLocal.withInitial(() -> new int[1]);
+    // held while fetching next value from source, null if not shared between threads
+    final private OwnedLock lock = threadSafeDepth.get()[0] > 0 ? new OwnedLock() : null;
     private boolean isNexting = false;
 
     public MemIt(Iterable<A> sourceBle)
     {
-        this.sourceBle = Tls.onDemand(sourceBle::iterator);
+        this.sourceBle = sourceBle;
+    }
+
+    /**
+     * iterators created while action runs will take a lock to fetch values, should be used
+     * by searches that resolve in parallel, others do not share iterators between threads
+     */
+    public static <T> T threadSafeIn(Lang.S<T> action)
+    {
+        int[] depth = threadSafeDepth.get();
+        ++depth[0];
+        try {
+            return action.get();
+        } finally {
+            --depth[0];
+        }
+    }
+
+    /** same as threadSafeIn(), but for the lazy part of the result, resolved on iteration */
+    public static <T> It<T> threadSafeIt(Iterable<T> source)
+    {
+        return It(() -> {
+            Iterator<T> iter = threadSafeIn(source::iterator);
+            return new Iterator<T>() {
+                public boolean hasNext() {
+                    return threadSafeIn(iter::hasNext);
+                }
+                public T next() {
+                    return threadSafeIn(iter::next);
+                }
+            };
+        });
+    }
+
+    /** should be called while fetching, so that no other thread was reading the source */
+    private void finish()
+    {
+        complete = true;
+        source = null;
+        sourceBle = null;
+    }
+
+    private Iterator<A> getSource()
+    {
+        if (source == null) {
+            source = sourceBle.iterator();
+        }
+        return source;
+    }
+
+    /** whether current thread is fetching next value, so that we are called from inside the source */
+    private boolean isNextingHere()
+    {
+        return lock == null ? isNexting : lock.isHeldByCurrentThread();
+    }
+
+    /** @return false if value is being fetched by a thread that waits for current one */
+    private boolean startNexting()
+    {
+        if (lock == null) {
+            isNexting = true;
+            return true;
+        } else {
+            return lock.lock();
+        }
+    }
+
+    private void stopNexting()
+    {
+        if (lock == null) {
+            isNexting = false;
+        } else {
+            lock.unlock();
+        }
     }
 
     public Iterator<A> iterator()
     {
-        Iterator<A> source = sourceBle.get();
         return new Iterator<A>() {
             Node current = head;
             public boolean hasNext() {
-                if (isNexting) {
+                if (isNextingHere()) {
                     // expression resolved through itself results in such recursion in the
                     // iterator. I guess it's safe to answer "empty" on circular reference
                     return false;
+                } else if (current.next != null) {
+                    return true;
+                } else if (complete) {
+                    // iterators of types shared between searches end here without writing anything
+                    return false;
+                } else if (!startNexting()) {
+                    // same circular reference, but through other thread
+                    return false;
                 }
-                isNexting = true;
-                boolean has;
                 try {
-                    has = current.next != null
-                        || source.hasNext();
-                } catch (StackOverflowError exc) {
-                    throw exc;
+                    if (current.next != null) {
+                        return true;
+                    } else if (complete) {
+                        return false;
+                    } else if (getSource().hasNext()) {
+                        return true;
+                    } else {
+                        finish();
+                        return false;
+                    }
+                } finally {
+                    stopNexting();
                 }
-                isNexting = false;
-                return has;
             }
             public A next() {
-                if (isNexting) {
+                if (isNextingHere()) {
                     throw new NoSuchElementException("shalava");
                 }
-                isNexting = true;
-                if (current.next != null) {
-                    // look further
-                } else if (source.hasNext()) {
-                    A value = source.next();
-                    current.next = new Node(value);
-                } else {
-                    throw new NoSuchElementException("loh");
+                if (current.next == null) {
+                    if (!startNexting()) {
+                        throw new NoSuchElementException("shalava from other thread");
+                    }
+                    try {
+                        if (current.next != null) {
+                            // fetched by other thread while we were waiting
+                        } else if (!complete && getSource().hasNext()) {
+                            A value = getSource().next();
+                            current.next = new Node(value);
+                        } else {
+                            finish();
+                            throw new NoSuchElementException("loh");
+                        }
+                    } finally {
+                        stopNexting();
+                    }
                 }
                 current = current.next;
-                isNexting = false;
                 return current.value;
             }
         };
     }
 
+    /** whether source was iterated till the end, so iterating this will not resolve anything */
+    public boolean isComplete() {
+        return complete;
+    }
+
     public boolean has() {
         return It(this).has();
     }
@@ -69,7 +174,7 @@ public class MemIt<A> implements IReusableIt<A>
     private class Node
     {
         final A value;
-        Node next = null;
+        volatile Node next = null;
 
         public Node(A value)
         {
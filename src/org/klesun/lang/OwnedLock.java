@@ -0,0 +1,123 @@
+package org.klesun.lang;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * a non-reentrant lock that knows which thread holds it, so that
+ * instead of a deadlock the waiting thread is told that the value
+ * it waits for depends on itself - same as a circular reference
+ * when everything is resolved in one thread
+ *
+ * used only when resolution is parallel, sequential search does
+ * not need anything more than a flag to detect circular references
+ */
+public class OwnedLock
+{
+    // all locks are taken and awaited under this monitor, waiters are woken when a lock
+    // is released or when a thread starts waiting, since that may close a wait cycle
+    final private static Object waitChain = new Object();
+    final private static Map<Thread, OwnedLock> threadToAwaited = new ConcurrentHashMap<>();
+    // how many times a thread gave up waiting for other thread that waited for it
+    final private static AtomicLong brokenCycles = new AtomicLong(0);
+
+    private volatile Thread owner = null;
+
+    public boolean isHeldByCurrentThread()
+    {
+        return owner == Thread.currentThread();
+    }
+
+    /** whether the owner of this lock is (transitively) waiting for the current thread */
+    private boolean awaitsCurrentThread()
+    {
+        Thread current = Thread.currentThread();
+        Thread next = owner;
+        // chain can not be longer than the number of threads, the limit is just a safety measure
+        for (int i = 0; next != null && i < 1000; ++i) {
+            if (next == current) {
+                return true;
+            }
+            OwnedLock awaited = threadToAwaited.get(next);
+            next = awaited != null ? awaited.owner : null;
+        }
+        return false;
+    }
+
+    /**
+     * results resolved while this number changed may lack types, even if it was
+     * other thread that gave up, since current thread could join its result
+     */
+    public static long getBrokenCycles()
+    {
+        return brokenCycles.get();
+    }
+
+    /** @return false if lock is held by other thread */
+    public boolean tryLock()
+    {
+        synchronized (waitChain) {
+            if (owner == null) {
+                owner = Thread.currentThread();
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @param giveUpOnCycle - when false, thread will wait even if owner waits for it, for cases
+     *  when owner is known to give up waiting by itself, like when it waits in a memoizing iterator
+     * @return false if lock is held by this thread or by a thread that waits for it
+     */
+    private boolean lock(boolean giveUpOnCycle)
+    {
+        Thread current = Thread.currentThread();
+        synchronized (waitChain) {
+            try {
+                while (owner != null) {
+                    if (giveUpOnCycle && awaitsCurrentThread()) {
+                        if (!isHeldByCurrentThread()) {
+                            brokenCycles.incrementAndGet();
+                        }
+                        return false;
+                    }
+                    if (threadToAwaited.put(current, this) == null) {
+                        // threads waiting for us may be in a cycle now
+                        waitChain.notifyAll();
+                    }
+                    waitChain.wait();
+                }
+            } catch (InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                threadToAwaited.remove(current);
+            }
+            owner = current;
+            return true;
+        }
+    }
+
+    /** @return false if lock is held by this thread or by a thread that waits for it */
+    public boolean lock()
+    {
+        return lock(true);
+    }
+
+    /** @return false if lock is already held by this thread or if it was interrupted */
+    public boolean lockAwaiting()
+    {
+        return !isHeldByCurrentThread() && lock(false);
+    }
+
+    public void unlock()
+    {
+        synchronized (waitChain) {
+            owner = null;
+            waitChain.notifyAll();
+        }
+    }
+}
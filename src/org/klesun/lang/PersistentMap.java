@@ -0,0 +1,110 @@
+package org.klesun.lang;
+
+/**
+ * immutable hash map, put() returns a new map that shares all but a few nodes
+ * with the old one, so that each node of a tree, like an expression chain,
+ * could have a map of everything on the path to it without copying it
+ *
+ * it's a binary trie on bits of the key hash, keys are compared with equals()
+ */
+public class PersistentMap<K, V>
+{
+    final private static PersistentMap<?, ?> EMPTY = new PersistentMap<>(null);
+
+    final private Node<K, V> root;
+
+    private PersistentMap(Node<K, V> root)
+    {
+        this.root = root;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty()
+    {
+        return (PersistentMap<K, V>)EMPTY;
+    }
+
+    private static int hash(Object key)
+    {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** @return null if there is no such key */
+    public V get(K key)
+    {
+        int hash = hash(key);
+        Node<K, V> node = root;
+        for (int shift = 0; node != null && !node.isLeaf(); ++shift) {
+            node = ((hash >>> shift) & 1) == 0 ? node.zero : node.one;
+        }
+        for (; node != null; node = node.next) {
+            if (node.key.equals(key)) {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    public PersistentMap<K, V> put(K key, V value)
+    {
+        return new PersistentMap<>(put(root, new Node<>(key, value, hash(key), null), 0));
+    }
+
+    private static <K, V> Node<K, V> put(Node<K, V> node, Node<K, V> leaf, int shift)
+    {
+        if (node == null) {
+            return leaf;
+        } else if (!node.isLeaf()) {
+            return ((leaf.hash >>> shift) & 1) == 0
+                ? new Node<>(put(node.zero, leaf, shift + 1), node.one)
+                : new Node<>(node.zero, put(node.one, leaf, shift + 1));
+        } else if (node.hash == leaf.hash) {
+            // new value goes first, so it hides the old one with same key
+            return new Node<>(leaf.key, leaf.value, leaf.hash, node);
+        } else {
+            Node<K, V> branch = ((node.hash >>> shift) & 1) == 0
+                ? new Node<>(node, null)
+                : new Node<>(null, node);
+            return put(branch, leaf, shift);
+        }
+    }
+
+    private static class Node<K, V>
+    {
+        // set in a leaf
+        final K key;
+        final V value;
+        final int hash;
+        // leaf with same hash
+        final Node<K, V> next;
+        // set in a branch, children by the next bit of the hash
+        final Node<K, V> zero;
+        final Node<K, V> one;
+
+        Node(K key, V value, int hash, Node<K, V> next)
+        {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.next = next;
+            this.zero = null;
+            this.one = null;
+        }
+
+        Node(Node<K, V> zero, Node<K, V> one)
+        {
+            this.key = null;
+            this.value = null;
+            this.hash = 0;
+            this.next = null;
+            this.zero = zero;
+            this.one = one;
+        }
+
+        boolean isLeaf()
+        {
+            return key != null;
+        }
+    }
+}
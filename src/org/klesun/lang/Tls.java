@@ -1,6 +1,8 @@
 package org.klesun.lang;
 
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.impl.source.PsiFileImpl;
 import com.jetbrains.php.lang.psi.elements.PhpExpression;
 import com.jetbrains.php.lang.psi.resolve.types.PhpType;
 
@@ -241,8 +243,9 @@ public class Tls extends Lang
 
     public static class OnDemand<T> implements IOnDemand<T>
     {
-        final private S<T> f;
-        private Opt<T> value = non();
+        // dropped once value is taken, so that resolved value did not keep what getter refers to
+        private volatile S<T> f;
+        private volatile Opt<T> value = non();
 
         OnDemand(S<T> f)
         {
@@ -254,8 +257,10 @@ public class Tls extends Lang
 
         @Override
         public T get() {
-            if (!value.has()) {
-                value = new Opt<>(f.get(), true);
+            S<T> getter = f;
+            if (!value.has() && getter != null) {
+                value = new Opt<>(getter.get(), true);
+                f = null;
             }
             return value.unw();
         }
@@ -308,6 +313,14 @@ public class Tls extends Lang
         return type;
     }
 
+    /** whether AST of the file is loaded, if not - psi is backed by stubs */
+    public static boolean isParsed(PsiElement psi)
+    {
+        PsiFile file = psi.getContainingFile();
+        return !(file instanceof PsiFileImpl)
+            || ((PsiFileImpl)file).getTreeElement() != null;
+    }
+
     public static <T> T ife(boolean cond, S<T> then, S<T> els)
     {
         if (cond) {